@@ -0,0 +1,203 @@
+package NEREngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+/**
+ * Annotation of documents by a pool of workers sharing one set of CoreNLP annotators
+ * (the annotators are thread safe and each model is loaded once, a pipeline per worker would only multiply the heap).
+ * Documents wait in a bounded queue, callers block while it is full (backpressure instead of unbounded memory).
+ * Each annotator runs as a stage of its own, so that the time spent per stage (tokenize, ssplit, pos, lemma, ner) is measured.
+ * Startup time, heap of the loaded models (if enabled, see NERConfig.isHeapMeasured) and latency per document
+ * are recorded to compare annotation profiles.
+ */
+public class AnnotationService {
+	private List<Stage> stages;
+	private ExecutorService workers;
+	private Semaphore capacity;
+	private int workerCount;
+	private LongAdder documents = new LongAdder();
+	//latency of the documents in ns
+	private LongAdder latency = new LongAdder();
+	private LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+	private long startupTime;
+	//-1: not measured
+	private long heap = -1;
+
+	/*
+	 * props: CoreNLP properties, "annotators" defines the stages in their order
+	 */
+	public AnnotationService(Properties props, int workerCount, int queueSize) {
+		boolean measureHeap = NERConfig.isHeapMeasured();
+		long heapBefore = measureHeap ? usedHeap() : 0;
+		Long start = System.nanoTime();
+		this.stages = new ArrayList<Stage>();
+		for (String name : props.getProperty("annotators").split(",")) {
+			Properties stageProps = new Properties();
+			stageProps.putAll(props);
+			stageProps.setProperty("annotators", name.trim());
+			//requirements are met by the previous stages
+			stages.add(new Stage(name.trim(), new StanfordCoreNLP(stageProps, false)));
+		}
+		this.startupTime = (System.nanoTime() - start) / 1000000;
+		if(measureHeap){
+			this.heap = Math.max(0, usedHeap() - heapBefore);
+		}
+		this.workerCount = Math.max(1, workerCount);
+		this.capacity = new Semaphore(this.workerCount + Math.max(0, queueSize));
+		AtomicInteger count = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(this.workerCount, this.workerCount, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "Annotation-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		System.out.println("Annotation pipeline " + props.getProperty("annotators") + " with " + this.workerCount + " workers, queue size " + queueSize
+				+ "; Time: " + startupTime + "ms" + (heap >= 0 ? ", heap: " + heap / (1024 * 1024) + "MB" : ""));
+	}
+
+	/*
+	 * Annotate the document by a worker -> future completes with the annotated document.
+	 * Blocks while the queue is full.
+	 */
+	public CompletableFuture<Annotation> submit(Annotation document) {
+		CompletableFuture<Annotation> future = new CompletableFuture<Annotation>();
+		try {
+			capacity.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+		try {
+			workers.execute(() -> {
+				try {
+					annotateInThread(document);
+					future.complete(document);
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				} finally {
+					capacity.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			capacity.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/*
+	 * Annotate the document by a worker and wait for the result
+	 */
+	public void annotate(Annotation document) {
+		try {
+			submit(document).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new CompletionException(e.getCause());
+		}
+	}
+
+	/*
+	 * Run all stages on the document in the calling thread
+	 */
+	public void annotateInThread(Annotation document) {
+		long begin = System.nanoTime();
+		for (Stage s : stages) {
+			long start = System.nanoTime();
+			s.pipeline.annotate(document);
+			s.time.add(System.nanoTime() - start);
+		}
+		long time = System.nanoTime() - begin;
+		latency.add(time);
+		maxLatency.accumulate(time);
+		documents.increment();
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/*
+	 * Average time per document and stage, e.g. "tokenize: 1.2ms, ssplit: 0.1ms, ..."
+	 */
+	public String getTimingInformation() {
+		long n = Math.max(1, documents.sum());
+		StringBuilder sb = new StringBuilder();
+		for (Stage s : stages) {
+			if(sb.length() > 0){
+				sb.append(", ");
+			}
+			sb.append(s.name).append(": ").append(String.format("%.1f", s.time.sum() / 1000000.0 / n)).append("ms");
+		}
+		return documents.sum() + " documents, avg. " + sb;
+	}
+
+	/*
+	 * Startup time, heap of the models and latency per document
+	 */
+	public String getStatistics() {
+		long n = documents.sum();
+		return "startup " + startupTime + "ms, " + (heap >= 0 ? "heap " + heap / (1024 * 1024) + "MB, " : "") + n + " documents, latency avg. "
+				+ String.format("%.1f", latency.sum() / 1000000.0 / Math.max(1, n)) + "ms, max. " + maxLatency.get() / 1000000 + "ms";
+	}
+
+	public long getStartupTime() {
+		return startupTime;
+	}
+
+	/*
+	 * Heap in bytes allocated by loading the models (estimate), -1 if not measured
+	 */
+	public long getHeap() {
+		return heap;
+	}
+
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+
+	// ------- Used heap after a full GC (opt-in: stalls the startup)
+	private static long usedHeap() {
+		Runtime r = Runtime.getRuntime();
+		System.gc();
+		return r.totalMemory() - r.freeMemory();
+	}
+
+
+	//######################### Stage ##########################################
+
+	private static class Stage {
+		private String name;
+		private StanfordCoreNLP pipeline;
+		//accumulated runtime in ns
+		private LongAdder time = new LongAdder();
+
+		Stage(String name, StanfordCoreNLP pipeline) {
+			this.name = name;
+			this.pipeline = pipeline;
+		}
+	}
+}
@@ -3,7 +3,15 @@
  */
 package NEREngine;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
@@ -11,7 +19,6 @@ import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.util.CoreMap;
 
 import org.slf4j.Logger;
@@ -23,7 +30,7 @@ import org.slf4j.LoggerFactory;
  */
 public class CoreNLPEngine implements NEREngine {
 	private static CoreNLPEngine engine;
-	private StanfordCoreNLP pipeline;
+	private AnnotationService service;
 	private static final Logger LOG = LoggerFactory.getLogger(CoreNLPEngine.class);
 	
 	/*
@@ -34,7 +41,7 @@ public class CoreNLPEngine implements NEREngine {
 		setPropertiesForStanfordCoreNLP();
 	}
 	
-	public static CoreNLPEngine getInstance() {
+	public static synchronized CoreNLPEngine getInstance() {
 		if (CoreNLPEngine.engine == null) {
 				CoreNLPEngine.engine = new CoreNLPEngine ();
 		    }
@@ -43,15 +50,41 @@ public class CoreNLPEngine implements NEREngine {
 	
 	private void setPropertiesForStanfordCoreNLP(){
         Properties props = new Properties();
-        boolean useRegexner = false;
-        if (useRegexner) {
-          props.put("annotators", "tokenize, ssplit, pos, lemma, ner, regexner");
-          props.put("regexner.mapping", "locations.txt");
-        } else {
-          props.put("annotators", "tokenize, ssplit, pos, lemma, ner");
+        String annotators;
+        switch (NERConfig.getProfile()) {
+		case FAST:
+			//only the CRF model of PERSON, ORGANIZATION, LOCATION; no lemmas, dates or numbers
+			annotators = "tokenize, ssplit, pos, ner";
+			props.put("ner.model", NERConfig.getNerModel());
+			props.put("ner.useSUTime", "false");
+			props.put("ner.applyNumericClassifiers", "false");
+			break;
+		default:
+			annotators = "tokenize, ssplit, pos, lemma, ner";
+			break;
+		}
+        String mapping = NERConfig.getRegexnerMapping();
+        if (mapping != null) {
+          annotators += ", regexner";
+          props.put("regexner.mapping", mapping);
         }
-        this.pipeline = new StanfordCoreNLP(props);
+        props.put("annotators", annotators);
+        this.service = new AnnotationService(props, NERConfig.getWorkers(), NERConfig.getQueueSize());
     }
+	
+	/*
+	 * Average time per document of each annotator
+	 */
+	public String getTimingInformation() {
+		return service.getTimingInformation();
+	}
+	
+	/*
+	 * Startup time, heap of the models and latency per document of the configured profile
+	 */
+	public String getProfileInformation() {
+		return NERConfig.getProfile() + ": " + service.getStatistics();
+	}
 
 	/* (non-Javadoc)
 	 * @see NEREngine.NEREngine#getEntitiesFromText(java.lang.String)
@@ -62,16 +95,150 @@ public class CoreNLPEngine implements NEREngine {
 		//http://www.informit.com/articles/article.aspx?p=2265404
 		//this.pipeline.clearAnnotatorPool();
 
-        //replace intra-word ".", ":", "/"
-        text = this.splitOnIntrawordPunctuation(text);
-
-        //normalize punctuation to improve negation detection
-        text = this.cleanNegators(text);
-
-        Annotation document = new Annotation(text);
-        // run all Annotators on this text
-        this.pipeline.annotate(document);
-
+        Annotation document = createDocument(text);
+        // run all Annotators on this text (by a worker of the pool, blocks while the queue is full)
+        this.service.annotate(document);
+        return extractEntities(document);
+	}
+	
+	/* (non-Javadoc)
+	 * @see NEREngine.NEREngine#getEntitiesFromTexts(java.lang.Iterable)
+	 */
+	@Override
+	public List<List<NamedEntity>> getEntitiesFromTexts(Iterable<String> texts) {
+		List<CompletableFuture<List<NamedEntity>>> results = new ArrayList<CompletableFuture<List<NamedEntity>>>();
+		int i = 0;
+		for (String text : texts) {
+			results.add(submit(i++, text));
+		}
+		List<List<NamedEntity>> entities = new ArrayList<List<NamedEntity>>();
+		List<Throwable> errors = new ArrayList<Throwable>();
+		for (CompletableFuture<List<NamedEntity>> r : results) {
+			try {
+				entities.add(r.join());
+			} catch (RuntimeException e) {
+				errors.add(e);
+			}
+		}
+		throwFailures(errors, results.size());
+		return entities;
+	}
+	
+	/* (non-Javadoc)
+	 * @see NEREngine.NEREngine#getEntitiesFromTexts(java.lang.Iterable, java.util.function.BiConsumer)
+	 */
+	@Override
+	public void getEntitiesFromTexts(Iterable<String> texts, BiConsumer<Integer, List<NamedEntity>> callback) {
+		//one party per document in progress (bounded by the queue) -> nothing is kept of completed documents
+		Phaser running = new Phaser(1);
+		ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+		int i = 0;
+		for (String text : texts) {
+			int index = i++;
+			running.register();
+			submit(index, text).thenAccept(entities -> {
+				try {
+					callback.accept(index, entities);
+				} catch (RuntimeException e) {
+					System.out.println("Callback of document " + index + " failed: " + e.getMessage());
+					throw e;
+				}
+			}).whenComplete((r, e) -> {
+				if(e != null){
+					errors.add(e);
+				}
+				running.arriveAndDeregister();
+			});
+		}
+		running.arriveAndAwaitAdvance();
+		throwFailures(errors, i);
+	}
+	
+	/* (non-Javadoc)
+	 * @see NEREngine.NEREngine#getEntitiesFromStream(java.io.Reader, java.util.function.Consumer)
+	 */
+	@Override
+	public void getEntitiesFromStream(Reader text, Consumer<NamedEntity> callback) throws IOException {
+		Long start = System.nanoTime();
+		Set<NamedEntity> found = new HashSet<NamedEntity>();
+		//chunks not yet emitted, results are emitted in the order of the text
+		ArrayDeque<CompletableFuture<List<NamedEntity>>> pending = new ArrayDeque<CompletableFuture<List<NamedEntity>>>();
+		//finished chunks wait for a slow head chunk -> max. as many chunks as the pool holds, then reading waits for the head
+		int maxPending = service.getWorkerCount() + Math.max(0, NERConfig.getQueueSize());
+		int[] chunks = {0};
+		SentenceChunker chunker = new SentenceChunker(NERConfig.getChunkSize(), chunk -> {
+			pending.add(submitChunk(chunks[0]++, chunk));
+			while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+				emit(pending.poll().join(), found, callback);
+			}
+		});
+		//normalized while read, the chunks are annotated while the next ones are read
+		try {
+			TextNormalizer.normalize(text, chunker);
+			chunker.close();
+			while (!pending.isEmpty()) {
+				emit(pending.poll().join(), found, callback);
+			}
+		} finally {
+			//failed chunk (or callback): no chunk keeps running after the call
+			CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).handle((r, e) -> null).join();
+		}
+		System.out.println("Annotated stream in " + chunks[0] + " chunks, entities: " + found.size() + "; Time: " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+	
+	// ------- Failed chunk -> future completes exceptionally, the stream fails when its turn comes
+	private CompletableFuture<List<NamedEntity>> submitChunk(int index, String chunk) {
+		return service.submit(new Annotation(chunk)).thenApply(this::extractEntities).whenComplete((r, e) -> {
+			if(e != null){
+				System.out.println("Annotation of chunk " + index + " failed: " + e.getMessage());
+			}
+		});
+	}
+	
+	// ------- Entities of a chunk that were not found in a previous chunk
+	private void emit(List<NamedEntity> entities, Set<NamedEntity> found, Consumer<NamedEntity> callback) {
+		for (NamedEntity ne : entities) {
+			if(found.add(ne)){
+				callback.accept(ne);
+			}
+		}
+	}
+	
+	/*
+	 * Annotate the document by a worker of the pool (blocks while the queue is full); entities are extracted by the worker.
+	 * A failed document completes the future exceptionally.
+	 */
+	private CompletableFuture<List<NamedEntity>> submit(int index, String text) {
+		return service.submit(createDocument(text)).thenApply(this::extractEntities).whenComplete((r, e) -> {
+			if(e != null){
+				System.out.println("Annotation of document " + index + " failed: " + e.getMessage());
+			}
+		});
+	}
+	
+	// ------- After all documents are done: first failure as CompletionException (further ones suppressed)
+	private static void throwFailures(Collection<Throwable> errors, int documents) {
+		if(errors.isEmpty()){
+			return;
+		}
+		CompletionException failure = null;
+		for (Throwable e : errors) {
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			if(failure == null){
+				failure = new CompletionException(errors.size() + " of " + documents + " documents failed: " + cause.getMessage(), cause);
+			}else{
+				failure.addSuppressed(cause);
+			}
+		}
+		throw failure;
+	}
+	
+	private Annotation createDocument(String text) {
+        //replace intra-word ".", ":", "/" and normalize punctuation to improve negation detection (one pass)
+        return new Annotation(TextNormalizer.normalize(text));
+	}
+	
+	private List<NamedEntity> extractEntities(Annotation document) {
         // these are all the sentences in this document
         List<CoreMap> sentences = document.get(SentencesAnnotation.class);
         StringBuilder sb = new StringBuilder();
@@ -143,27 +310,6 @@ public class CoreNLPEngine implements NEREngine {
 	  }
         
 	
-	 private String splitOnIntrawordPunctuation(String t) {
-	        //replace intra-word ".", ":", "/" (\S is non-whitespace character)
-	        return t.replaceAll("(\\S)(\\.|:|/)(\\S)", "$1$2 $3");
-	    }
-	 
-	 private String cleanNegators(String t) {
-	        //´ and ` with normalized '
-	        t = t.replaceAll("[´`]", "'");
-	        // insert ' where it is missing
-	        t = t.replaceAll("\\b" +
-	                "(do|does|dos|doe|did" +
-	                "|have|hav|has|hase|had" +
-	                "|wo|is|are|was|were|wer" +
-	                "|ca|could" +
-	                "|would|should" +
-	                "must)" +
-	                "(n)(t)\\b"
-	                , "$1$2'$3");
-	        return t;
-	    }
-
 	/*
 	 * Test execution
 	 */
@@ -179,6 +325,8 @@ public class CoreNLPEngine implements NEREngine {
 		for (NamedEntity entity : e.getEntitiesFromText(text)) {
 	        System.out.println(entity.getType() + ": " + entity.getName());
 		}
+		System.out.println(CoreNLPEngine.getInstance().getTimingInformation());
+		System.out.println(CoreNLPEngine.getInstance().getProfileInformation());
 
 	}
 }
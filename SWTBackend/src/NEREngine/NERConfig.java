@@ -0,0 +1,107 @@
+package NEREngine;
+
+/**
+ * Central place for the tunables of the NER engine.
+ * Every value can be overwritten on startup via system properties, e.g. -Dswt.ner.workers=4
+ */
+public class NERConfig {
+	public enum Profile {
+		FULL, FAST
+	}
+	
+	private static final String PREFIX = "swt.ner.";
+
+	//######################### Annotation profile ##########################################
+
+	/*
+	 * full: all NER models incl. dates and numbers (with lemmas); fast: just the CRF model of the entity types in use
+	 */
+	public static Profile getProfile() {
+		String profile = getString("profile", "full");
+		try {
+			return Profile.valueOf(profile.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown annotation profile '" + profile + "' -> fallback to full");
+			return Profile.FULL;
+		}
+	}
+
+	/*
+	 * CRF model of the fast profile
+	 */
+	public static String getNerModel() {
+		return getString("model", "edu/stanford/nlp/models/ner/english.all.3class.distsim.crf.ser.gz");
+	}
+
+	/*
+	 * Mapping file of the additional regexner annotator (not loaded if not set), e.g. -Dswt.ner.regexnerMapping=locations.txt
+	 */
+	public static String getRegexnerMapping() {
+		String mapping = getString("regexnerMapping", null);
+		return mapping == null || mapping.trim().isEmpty() ? null : mapping.trim();
+	}
+
+
+	/*
+	 * Measure the heap of the loaded models (forces a GC before and after loading -> off by default)
+	 */
+	public static boolean isHeapMeasured() {
+		return getBoolean("measureHeap", false);
+	}
+
+
+	//######################### Worker pool ##########################################
+
+	/*
+	 * Number of documents annotated in parallel (<= 0: number of cores)
+	 */
+	public static int getWorkers() {
+		int workers = getInt("workers", 0);
+		return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+	}
+
+	/*
+	 * Max. number of documents waiting for a worker -> further callers block until there is space
+	 */
+	public static int getQueueSize() {
+		return getInt("queueSize", 100);
+	}
+
+
+	//######################### Streaming ##########################################
+
+	/*
+	 * Min. size (characters) of the sentence bounded chunks of a streamed text
+	 */
+	public static int getChunkSize() {
+		return getInt("chunkSize", 10000);
+	}
+
+
+	//######################### Helper ##########################################
+
+	static String getString(String key, String def) {
+		return System.getProperty(PREFIX + key, def);
+	}
+
+	static int getInt(String key, int def) {
+		String v = System.getProperty(PREFIX + key);
+		if(v == null){
+			return def;
+		}
+		try {
+			return Integer.parseInt(v.trim());
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid value for " + PREFIX + key + ": " + v);
+			return def;
+		}
+	}
+
+	static boolean getBoolean(String key, boolean def) {
+		String v = System.getProperty(PREFIX + key);
+		if(v == null){
+			return def;
+		}
+		return Boolean.parseBoolean(v.trim());
+	}
+}
@@ -1,10 +1,35 @@
 package NEREngine;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public interface NEREngine {
 
 public List<NamedEntity> getEntitiesFromText(String text);
+
+/*
+ * Entities of several documents, annotated in parallel -> one list per document in the order of the documents.
+ * Failed documents: CompletionException after all documents are done.
+ */
+public List<List<NamedEntity>> getEntitiesFromTexts(Iterable<String> texts);
+
+/*
+ * Entities of several documents, annotated in parallel -> callback (index of the document, entities) as soon as a document is done,
+ * called concurrently by the workers. Returns after all documents are done.
+ * The texts are consumed while the documents are annotated (streams of any length).
+ * Failed documents or callbacks: CompletionException after all documents are done.
+ */
+public void getEntitiesFromTexts(Iterable<String> texts, BiConsumer<Integer, List<NamedEntity>> callback);
+
+/*
+ * Entities of a text of any size, annotated in chunks of sentences -> callback with each entity as soon as it is found
+ * (in the order of the text, each entity once). Returns after the whole text is done.
+ * Failed chunk: CompletionException once the chunk is due, the chunks in progress are finished first.
+ */
+public void getEntitiesFromStream(Reader text, Consumer<NamedEntity> callback) throws IOException;
 }
 
 
@@ -1,6 +1,8 @@
 package NEREngine;
 
 import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class NamedEntity {
 
@@ -8,6 +10,7 @@ public class NamedEntity {
 	  private EntityType type;
 	  private HashMap<String,HashMap<String, Integer>> properties;
 	  private String uri;
+	  private Pattern pattern;
 
 	  public String getName() {
 	    return name;
@@ -46,6 +49,12 @@ public class NamedEntity {
 		  
 	  }
 	  
+	  @Override
+	  public int hashCode(){
+		  //consistent with equals: name and type
+		  return 31 * name.hashCode() + (type == null ? 0 : type.hashCode());
+	  }
+	  
 	  @Override
 	  public String toString(){
 		return type + " '" + name + "' URI: " + uri + "\n Properties: " + properties;
@@ -53,6 +62,20 @@ public class NamedEntity {
 	  }
 	  
 	  
+	  /*
+	   * Same expression as getRegexName for local matching in Java (compiled once)
+	   */
+	  public Pattern getNamePattern(){
+		  if(pattern == null){
+			  try {
+				  pattern = Pattern.compile(getRegexName().replace("\\\\", "\\"));
+			  } catch (PatternSyntaxException e) {
+				  pattern = Pattern.compile(Pattern.quote(name));
+			  }
+		  }
+		  return pattern;
+	  }
+	  
 	  public String getRegexName(){
 		  //return ("(^.{0,5}\\\\s+|^)" + name.replace(".", ".*") + "((\\\\s+.{0,5}$)|$)");
 		  return ("(^.{0,10}\\\\s+|^)" + name.replace(".", ".*") + "((\\\\s+.{0,5}(\\\\(.*\\\\))?$)|$)");
@@ -0,0 +1,74 @@
+package NEREngine;
+
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * Splits a stream of text into chunks of about the configured size that end at a sentence boundary
+ * (".", "!" or "?" followed by whitespace, not after a single capital like "H."), so that no sentence and
+ * therefore no entity is split between two chunks. Without a sentence end the chunk is cut at whitespace
+ * after twice the size, at the latest after four times the size.
+ * Each chunk is handed over as soon as it is complete, the last one on close.
+ */
+public class SentenceChunker extends Writer {
+	private int size;
+	private Consumer<String> chunks;
+	private StringBuilder chunk;
+	private char prev1;
+	private char prev2;
+	private char prev3;
+
+	public SentenceChunker(int size, Consumer<String> chunks) {
+		this.size = Math.max(1, size);
+		this.chunks = chunks;
+		this.chunk = new StringBuilder(this.size + 256);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			char c = cbuf[i];
+			if(chunk.length() >= size && isBoundary(c)){
+				emit();
+			}
+			chunk.append(c);
+			prev3 = prev2;
+			prev2 = prev1;
+			prev1 = c;
+		}
+	}
+
+	private boolean isBoundary(char c) {
+		if(!Character.isWhitespace(c)){
+			return chunk.length() >= 4 * size;
+		}
+		if(chunk.length() >= 2 * size){
+			return true;
+		}
+		//sentence end, but not an initial ("H. Plattner")
+		boolean initial = Character.isUpperCase(prev2) && !Character.isLetterOrDigit(prev3);
+		return prev1 == '!' || prev1 == '?' || (prev1 == '.' && !initial);
+	}
+
+	private void emit() {
+		if(chunk.length() > 0){
+			chunks.accept(chunk.toString());
+			chunk.setLength(0);
+		}
+	}
+
+	/*
+	 * Chunks are only cut at boundaries -> nothing to flush
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/*
+	 * Hand over the rest as last chunk
+	 */
+	@Override
+	public void close() {
+		emit();
+	}
+}
@@ -0,0 +1,181 @@
+package NEREngine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Normalization of the text before the annotation in one pass over the characters (no regex, no intermediate copies):
+ * <ul>
+ * <li>split on intra-word punctuation: space after ".", ":", "/" between non-whitespace characters ("a.b" -> "a. b"),
+ * matches do not overlap ("a.b.c" -> "a. b.c")</li>
+ * <li>normalize ´ and ` to '</li>
+ * <li>insert the missing ' of negators ("dont" -> "don't")</li>
+ * </ul>
+ * Works on strings as well as on streams of any size (just the current word is buffered).
+ * Not thread safe, one instance per text.
+ */
+public class TextNormalizer {
+	private static final Set<String> NEGATORS = new HashSet<String>(Arrays.asList(
+			"do", "does", "dos", "doe", "did",
+			"have", "hav", "has", "hase", "had",
+			"wo", "is", "are", "was", "were", "wer",
+			"ca", "could",
+			"would", "should",
+			"must"));
+	//longest negator + "nt", longer words are not buffered
+	private static final int MAX_WORD = 8;
+
+	private StringBuilder out;
+	//current word (if longer than MAX_WORD: written directly)
+	private StringBuilder word = new StringBuilder(MAX_WORD);
+	private boolean longWord;
+
+	//last two characters of the input and state of the punctuation split
+	private int prev1 = -1;
+	private int prev2 = -1;
+	private boolean prev2Available = true;
+	private boolean matchBefore;
+
+	private TextNormalizer(StringBuilder out) {
+		this.out = out;
+	}
+
+	public static String normalize(String text) {
+		TextNormalizer n = new TextNormalizer(new StringBuilder(text.length() + 16));
+		for (int i = 0; i < text.length(); i++) {
+			n.accept(text.charAt(i));
+		}
+		n.finish();
+		return n.out.toString();
+	}
+
+	/*
+	 * Normalize the stream block by block
+	 */
+	public static void normalize(Reader in, Writer out) throws IOException {
+		char[] buffer = new char[8192];
+		TextNormalizer n = new TextNormalizer(new StringBuilder(buffer.length + 16));
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				n.accept(buffer[i]);
+			}
+			out.append(n.out);
+			n.out.setLength(0);
+		}
+		n.finish();
+		out.append(n.out);
+		out.flush();
+	}
+
+	private void accept(char c) {
+		// ------- Intra-word punctuation: match of the pattern (\S)([.:/])(\S) starting two characters before
+		boolean match = prev2Available && prev2 != -1 && !isWhitespace((char) prev2) && isPunctuation(prev1) && !isWhitespace(c);
+		if(match){
+			emit(' ');
+		}
+		emit(c == '´' || c == '`' ? '\'' : c);
+		//characters of a match can't start the next one
+		prev2Available = !(match || matchBefore);
+		matchBefore = match;
+		prev2 = prev1;
+		prev1 = c;
+	}
+
+	private void finish() {
+		endWord();
+	}
+
+	// ------- Output with negator check per word
+	private void emit(char c) {
+		if(isWordChar(c)){
+			if(longWord){
+				out.append(c);
+			}else if(word.length() < MAX_WORD){
+				word.append(c);
+			}else{
+				out.append(word).append(c);
+				word.setLength(0);
+				longWord = true;
+			}
+			return;
+		}
+		endWord();
+		out.append(c);
+	}
+
+	private void endWord() {
+		int length = word.length();
+		if(length > 2 && word.charAt(length - 2) == 'n' && word.charAt(length - 1) == 't'
+				&& NEGATORS.contains(word.substring(0, length - 2))){
+			out.append(word, 0, length - 1).append('\'').append('t');
+		}else{
+			out.append(word);
+		}
+		word.setLength(0);
+		longWord = false;
+	}
+
+	private static boolean isPunctuation(int c) {
+		return c == '.' || c == ':' || c == '/';
+	}
+
+	//whitespace of regex \s
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	//word character of regex \b
+	private static boolean isWordChar(char c) {
+		return c == '_' || Character.isLetterOrDigit(c);
+	}
+	
+	
+	/*
+	 * Test execution: same result as the former regex replacements for random texts (string and stream)
+	 */
+	public static void main(String[] args) throws IOException {
+		String[] parts = {"a", ".", ":", "/", " ", "dont", "isnt", "cant", "shouldnt", "mustnt", "wont", "ü", "´", "`", "x", "\n", "_",
+				"doesnt", "abcdefghijnt", "wasn", "t", "1"};
+		Random random = new Random(1);
+		int cases = 200000;
+		int mismatches = 0;
+		for (int i = 0; i < cases; i++) {
+			StringBuilder sb = new StringBuilder();
+			int n = random.nextInt(12);
+			for (int j = 0; j < n; j++) {
+				sb.append(parts[random.nextInt(parts.length)]);
+			}
+			String text = sb.toString();
+			String expected = normalizeByRegex(text);
+			//stream in blocks of max. 3 characters -> words and matches across blocks
+			StringWriter streamed = new StringWriter();
+			normalize(new StringReader(text) {
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					return super.read(cbuf, off, Math.min(len, 3));
+				}
+			}, streamed);
+			if(!expected.equals(normalize(text)) || !expected.equals(streamed.toString())){
+				if(mismatches++ < 10){
+					System.out.println("Mismatch for '" + text + "': expected '" + expected + "', string '" + normalize(text) + "', stream '" + streamed + "'");
+				}
+			}
+		}
+		System.out.println(cases + " texts, mismatches: " + mismatches);
+	}
+	
+	// ------- Former normalization by regex with the fixed negator pattern ("should|must"), reference of the test execution
+	private static String normalizeByRegex(String text) {
+		text = text.replaceAll("(\\S)(\\.|:|/)(\\S)", "$1$2 $3");
+		text = text.replaceAll("[´`]", "'");
+		return text.replaceAll("\\b(do|does|dos|doe|did|have|hav|has|hase|had|wo|is|are|was|were|wer|ca|could|would|should|must)(n)(t)\\b", "$1$2'$3");
+	}
+}
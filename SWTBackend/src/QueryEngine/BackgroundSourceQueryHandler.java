@@ -1,23 +1,29 @@
 package QueryEngine;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.jena.rdf.model.Model;
 
 import NEREngine.NamedEntity;
 import NEREngine.NamedEntity.EntityType;
 
-public class BackgroundSourceQueryHandler extends Thread {
+/**
+ * Query of one source for a list of entities of one type.
+ * Executed as task on the SourceQueryExecutor (no own thread anymore).
+ */
+public class BackgroundSourceQueryHandler implements Runnable {
 	private QuerySource.Source s;
 	private EntityType et;
 	private List<NamedEntity> entities;
 	private Model m;
-//	private List<String> cacheRef;
-//	private String filter;
+	private volatile QuerySource qs;
+	private volatile boolean cancelled;
+	private volatile long start;
+	private volatile long runtime = -1;
 
 
-	public BackgroundSourceQueryHandler(ThreadGroup group, QuerySource.Source s, EntityType et ,List<NamedEntity> entities){
-		super(group,(et + "_" + entities));
+	public BackgroundSourceQueryHandler(QuerySource.Source s, EntityType et ,List<NamedEntity> entities){
 		this.s = s;
 		this.et = et;
 		this.entities = entities;		
@@ -26,24 +32,54 @@ public class BackgroundSourceQueryHandler extends Thread {
 
 	
 	public void run(){
-//		switch (s) {
-//		case DBPedia:
-//			m = new QueryDBPedia(et, entities).getModel();
-//			break;
-//		default:
-//			break;
-//		}
-		m = new QuerySource(s, et, entities).getModel();
-		
+		if(cancelled){
+			return;
+		}
+		start = System.nanoTime();
+		qs = new QuerySource(s, et);
+		if(cancelled){
+			return;
+		}
+		m = qs.query(entities);
+		runtime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+	
+	/*
+	 * Abort running query (e.g. timeout) -> no result model
+	 */
+	public void cancel(){
+		cancelled = true;
+		QuerySource q = qs;
+		if(q != null){
+			q.abort();
+		}
 	}
 	
 	public Model getResultModel(){
-		return m;
+		return cancelled ? null : m;
 	}
 	
-//	public List<String> getCacheRef(){
-//		return cacheRef;
-//	}
+	/*
+	 * Query of an entity failed at the source (result incomplete)
+	 */
+	public boolean isFailed(){
+		QuerySource q = qs;
+		return q != null && q.isFailed();
+	}
+	
+	/*
+	 * Duration of the query in ms (without waiting time in the executor), time so far if still running (e.g. timeout)
+	 */
+	public long getRuntime(){
+		if(runtime >= 0){
+			return runtime;
+		}
+		return start == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+	
+	public EntityType getType(){
+		return et;
+	}
 	
 	public List<NamedEntity> getEntities(){
 		return entities;
@@ -52,5 +88,10 @@ public class BackgroundSourceQueryHandler extends Thread {
 	public QuerySource.Source getSource(){
 		return s;
 	}
+	
+	@Override
+	public String toString(){
+		return s + "_" + et + "_" + entities;
+	}
 
 }
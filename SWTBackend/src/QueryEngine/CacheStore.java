@@ -0,0 +1,230 @@
+package QueryEngine;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.sparql.core.GraphView;
+import org.apache.jena.tdb.TDBFactory;
+
+import NEREngine.NamedEntity.EntityType;
+
+/**
+ * Local store for all triples loaded from the sources.
+ * Depending on the cache mode the store lives only in memory or is persisted via TDB,
+ * so that a restarted process can answer known entities without querying the sources again.
+ * Every source result is kept in its own named graph below the graph namespace of its source
+ * (.../graph/<Source>/...) -> data of one source can be dropped without touching the others.
+ * The entity index (see EntityCache) and the persisted labels (see LabelCache) are kept in the default graph.
+ * All access has to happen inside of a transaction (beginRead/beginWrite -> end).
+ */
+public class CacheStore {
+	private static final String NS = "http://webprotege.stanford.edu/cache/";
+
+	private Dataset dataset;
+	private EngineConfig.CacheMode mode;
+
+	public CacheStore(EngineConfig.CacheMode mode, String directory) {
+		this.mode = mode;
+		switch (mode) {
+		case TDB:
+			new File(directory).mkdirs();
+			dataset = TDBFactory.createDataset(directory);
+			System.out.println("Opened TDB cache at: " + directory);
+			break;
+		default:
+			dataset = DatasetFactory.createTxnMem();
+			break;
+		}
+	}
+
+	public EngineConfig.CacheMode getMode() {
+		return mode;
+	}
+
+	/*
+	 * Model with all cached triples = union of all named graphs (valid across transactions).
+	 * The view is built on the transactional dataset graph; TDB's own union graph would stay bound
+	 * to the transaction it was created in and not see later commits.
+	 */
+	public Model getModel() {
+		return ModelFactory.createModelForGraph(GraphView.createUnionGraph(dataset.asDatasetGraph()));
+	}
+
+
+	//######################### Transactions ##########################################
+
+	public void beginRead() {
+		dataset.begin(ReadWrite.READ);
+	}
+
+	public void beginWrite() {
+		dataset.begin(ReadWrite.WRITE);
+	}
+
+	public void commit() {
+		dataset.commit();
+	}
+
+	public void end() {
+		if(dataset.isInTransaction()){
+			dataset.end();
+		}
+	}
+
+
+	//######################### Content (call inside of transaction) ##########################################
+
+	/*
+	 * Add result of a source query as own named graph -> can be dropped again on eviction
+	 */
+	public String add(Model m, QuerySource.Source source) {
+		String graph = NS + "graph/" + source + "/" + UUID.randomUUID();
+		dataset.addNamedModel(graph, m);
+		return graph;
+	}
+
+	public Model getGraph(String graph) {
+		return dataset.getNamedModel(graph);
+	}
+
+	public void removeGraph(String graph) {
+		dataset.removeNamedModel(graph);
+	}
+
+	/*
+	 * Names of all graphs of source results
+	 */
+	public List<String> listGraphs() {
+		List<String> graphs = new ArrayList<String>();
+		Iterator<String> it = dataset.listNames();
+		while (it.hasNext()) {
+			String name = it.next();
+			if(name.startsWith(NS + "graph/")){
+				graphs.add(name);
+			}
+		}
+		return graphs;
+	}
+
+	/*
+	 * Persist cache entry in the index (default graph, not part of the union model)
+	 */
+	public void addEntry(EntityCache.Entry e) {
+		Model index = dataset.getDefaultModel();
+		Resource r = index.createResource(entryURI(e.getKey()));
+		r.removeProperties();
+		r.addProperty(index.createProperty(NS + "source"), e.getKey().getSource().name())
+			.addProperty(index.createProperty(NS + "type"), e.getKey().getType().name())
+			.addProperty(index.createProperty(NS + "name"), e.getKey().getName())
+			.addProperty(index.createProperty(NS + "graph"), index.createResource(e.getGraph()))
+			.addLiteral(index.createProperty(NS + "loaded"), e.getLoaded());
+	}
+
+	/*
+	 * Remove cache entry from the index (only if not already replaced by a newer entry)
+	 */
+	public void removeEntry(EntityCache.Entry e) {
+		Model index = dataset.getDefaultModel();
+		Resource r = index.createResource(entryURI(e.getKey()));
+		if(index.contains(r, index.createProperty(NS + "graph"), index.createResource(e.getGraph()))){
+			r.removeProperties();
+		}
+	}
+
+	/*
+	 * Entries which are already part of the store (e.g. from a previous run)
+	 */
+	public List<EntityCache.Entry> loadEntries() {
+		List<EntityCache.Entry> entries = new ArrayList<EntityCache.Entry>();
+		Model index = dataset.getDefaultModel();
+		Property source = index.createProperty(NS + "source");
+		Property type = index.createProperty(NS + "type");
+		Property name = index.createProperty(NS + "name");
+		Property graph = index.createProperty(NS + "graph");
+		Property loaded = index.createProperty(NS + "loaded");
+
+		ResIterator it = index.listSubjectsWithProperty(graph);
+		while (it.hasNext()) {
+			Resource r = it.next();
+			try {
+				EntityCache.Key key = new EntityCache.Key(
+						QuerySource.Source.valueOf(r.getProperty(source).getString()),
+						EntityType.valueOf(r.getProperty(type).getString()),
+						r.getProperty(name).getString());
+				entries.add(new EntityCache.Entry(key, r.getProperty(graph).getResource().getURI(),
+						r.getProperty(loaded).getLong()));
+			} catch (Exception e) {
+				System.out.println("Skipped invalid cache entry " + r + ": " + e.getMessage());
+			}
+		}
+		return entries;
+	}
+
+	//######################### Labels (see LabelCache, default graph) ##########################################
+
+	public void addLabels(Map<LabelCache.Key, String> labels) {
+		Model index = dataset.getDefaultModel();
+		Property label = index.createProperty(NS + "label");
+		//replace labels already persisted for the same URI and language
+		removeLabels(new ArrayList<LabelCache.Key>(labels.keySet()));
+		for (Map.Entry<LabelCache.Key, String> e : labels.entrySet()) {
+			index.add(index.createResource(e.getKey().getURI()), label, e.getValue(), e.getKey().getLang());
+		}
+	}
+
+	public void removeLabels(List<LabelCache.Key> keys) {
+		Model index = dataset.getDefaultModel();
+		Property label = index.createProperty(NS + "label");
+		List<Statement> remove = new ArrayList<Statement>();
+		for (LabelCache.Key k : keys) {
+			StmtIterator it = index.listStatements(index.createResource(k.getURI()), label, (RDFNode) null);
+			while (it.hasNext()) {
+				Statement st = it.next();
+				if(st.getLanguage().equals(k.getLang())){
+					remove.add(st);
+				}
+			}
+		}
+		index.remove(remove);
+	}
+
+	public Map<LabelCache.Key, String> loadLabels() {
+		Map<LabelCache.Key, String> labels = new HashMap<LabelCache.Key, String>();
+		Model index = dataset.getDefaultModel();
+		StmtIterator it = index.listStatements(null, index.createProperty(NS + "label"), (RDFNode) null);
+		while (it.hasNext()) {
+			Statement st = it.next();
+			if(st.getSubject().isURIResource() && st.getObject().isLiteral()){
+				labels.put(new LabelCache.Key(st.getSubject().getURI(), st.getLanguage()), st.getString());
+			}
+		}
+		return labels;
+	}
+
+	private String entryURI(EntityCache.Key key) {
+		try {
+			return NS + "entity/" + key.getSource() + "/" + key.getType() + "/" + URLEncoder.encode(key.getName(), "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			//UTF-8 is always supported
+			throw new IllegalStateException(ex);
+		}
+	}
+}
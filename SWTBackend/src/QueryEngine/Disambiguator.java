@@ -0,0 +1,175 @@
+package QueryEngine;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * Joint disambiguation of all entities of a request on the int ids of the triple index: the out edges of the
+ * candidates of all entities are read once into an adjacency of the request (object -> candidates linking to it).
+ * The score of a candidate is the number of its links to candidates of the other entities:
+ * direct (candidate -> other) and indirect (candidate -> object <- other).
+ * Best candidate per entity in time linear in the neighbourhood of the candidates.
+ */
+public class Disambiguator {
+	private TripleIndex index;
+
+	//candidates: entities (index in the request) per node id
+	private HashMap<Integer, BitSet> owners;
+	//candidates linking to an object
+	private HashMap<Integer, IntList> inSubjects;
+	private HashMap<Integer, Boolean> labeled;
+
+	public Disambiguator(TripleIndex index) {
+		this.index = index;
+		this.owners = new HashMap<Integer, BitSet>();
+		this.inSubjects = new HashMap<Integer, IntList>();
+		this.labeled = new HashMap<Integer, Boolean>();
+	}
+
+	/*
+	 * candidates: URIs per entity, types: required rdf:type per entity
+	 * -> best URI per entity, "" if no candidate has a relation to the context
+	 */
+	public String[] resolve(List<Set<String>> candidates, List<Node> types) {
+		Long start = System.nanoTime();
+		String[] result = new String[candidates.size()];
+		index.beginRead();
+		try {
+			//1) owners of all candidates
+			for (int i = 0; i < candidates.size(); i++) {
+				for (String uri : candidates.get(i)) {
+					int c = index.id(NodeFactory.createURI(uri));
+					if(c == TripleIndex.NONE){
+						continue;
+					}
+					BitSet b = owners.get(c);
+					if(b == null){
+						b = new BitSet();
+						owners.put(c, b);
+					}
+					b.set(i);
+				}
+			}
+
+			//2) adjacency of the request in one pass over the out edges of the candidates
+			for (int c : owners.keySet()) {
+				for (int t = index.firstOut(c); t != TripleIndex.NONE; t = index.nextOut(t)) {
+					IntList subjects = inSubjects.get(index.object(t));
+					if(subjects == null){
+						subjects = new IntList();
+						inSubjects.put(index.object(t), subjects);
+					}
+					subjects.add(c);
+				}
+			}
+
+			//3) score candidates per entity
+			int type = index.id(RDF.type.asNode());
+			for (int i = 0; i < candidates.size(); i++) {
+				int max = 0;
+				String value = "";
+				int t = index.id(types.get(i));
+				for (String uri : candidates.get(i)) {
+					int c = index.id(NodeFactory.createURI(uri));
+					if(c == TripleIndex.NONE || !index.contains(c, type, t)){
+						continue;
+					}
+					int score = candidates.size() > 1 ? score(c, i) : scoreWithoutContext(c);
+					if(score > max){
+						max = score;
+						value = uri;
+					}
+				}
+				result[i] = value;
+			}
+		} finally {
+			index.endRead();
+		}
+		System.out.println("Disambiguated " + candidates.size() + " entities, candidates: " + owners.size() + "; Time: " + (System.nanoTime() - start) / 1000000 + "ms");
+		return result;
+	}
+
+	// ------- Links of the candidate to candidates of other entities: direct + via a common object
+	private int score(int c, int entity) {
+		int score = 0;
+		for (int t = index.firstOut(c); t != TripleIndex.NONE; t = index.nextOut(t)) {
+			int o = index.object(t);
+			if(isOther(o, entity)){
+				score++;
+			}
+			IntList subjects = inSubjects.get(o);
+			for (int j = 0; j < subjects.size(); j++) {
+				if(isOther(subjects.get(j), entity)){
+					score++;
+				}
+			}
+		}
+		return score;
+	}
+
+	// ------- Single entity (no context): links of the candidate to labeled resources
+	private int scoreWithoutContext(int c) {
+		int score = 0;
+		for (int t = index.firstOut(c); t != TripleIndex.NONE; t = index.nextOut(t)) {
+			if(isLabeled(index.object(t))){
+				score++;
+			}
+		}
+		return score;
+	}
+
+	private boolean isOther(int node, int entity) {
+		BitSet b = owners.get(node);
+		return b != null && (b.nextSetBit(0) != entity || b.nextSetBit(entity + 1) >= 0);
+	}
+
+	// ------- Node has an english label
+	private boolean isLabeled(int node) {
+		Boolean b = labeled.get(node);
+		if(b != null){
+			return b;
+		}
+		b = false;
+		int label = index.id(RDFS.label.asNode());
+		for (int t = index.firstOut(node); !b && t != TripleIndex.NONE; t = index.nextOut(t)) {
+			Node l = index.node(index.object(t));
+			if(index.predicate(t) == label && l.isLiteral()){
+				String lang = l.getLiteralLanguage().toLowerCase();
+				b = lang.equals("en") || lang.startsWith("en-");
+			}
+		}
+		labeled.put(node, b);
+		return b;
+	}
+
+
+	//######################### Growable int array ##########################################
+
+	static class IntList {
+		private int[] values = new int[4];
+		private int size;
+
+		void add(int v) {
+			if(size == values.length){
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = v;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Central place for the tunables of the query engine.
+ * Every value can be overwritten on startup via system properties, e.g. -Dswt.cache.mode=tdb
+ */
+public class EngineConfig {
+	public enum CacheMode {
+		MEMORY, TDB
+	}
+	
+	public enum ExecutorMode {
+		POOL, VIRTUAL
+	}
+	
+	public enum InferenceMode {
+		FULL, INCREMENTAL, MAPPING
+	}
+	
+	private static final String PREFIX = "swt.";
+	
+	//######################### Cache ##########################################
+	
+	public static CacheMode getCacheMode() {
+		String mode = getString("cache.mode", "memory");
+		try {
+			return CacheMode.valueOf(mode.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown cache mode '" + mode + "' -> fallback to memory");
+			return CacheMode.MEMORY;
+		}
+	}
+	
+	public static String getCacheDirectory() {
+		return getString("cache.dir", "data/tdb");
+	}
+	
+	/*
+	 * Max. number of cached entities (<= 0: unbounded) -> least recently used are evicted
+	 */
+	public static int getCacheMaxEntities() {
+		return getInt("cache.maxEntities", 10000);
+	}
+	
+	/*
+	 * Time to live of a cached entity in ms (<= 0: no expiry), configured in seconds
+	 */
+	public static long getCacheTTL() {
+		return getLong("cache.ttl", 7 * 24 * 3600) * 1000;
+	}
+	
+	/*
+	 * Number of independently locked segments of the entity cache (concurrent requests)
+	 */
+	public static int getCacheStripes() {
+		return getInt("cache.stripes", 16);
+	}
+	
+	
+	//######################### Sources ##########################################
+	
+	/*
+	 * Sources to query, comma separated (e.g. -Dswt.sources=DBPedia,LinkedMDB)
+	 */
+	public static List<QuerySource.Source> getSources() {
+		List<QuerySource.Source> sources = new ArrayList<QuerySource.Source>();
+		for (String s : getString("sources", "DBPedia").split(",")) {
+			for (QuerySource.Source source : QuerySource.Source.values()) {
+				if(source.name().equalsIgnoreCase(s.trim()) && !sources.contains(source)){
+					sources.add(source);
+				}
+			}
+		}
+		if(sources.isEmpty()){
+			System.out.println("No valid source configured -> fallback to DBPedia");
+			sources.add(QuerySource.Source.DBPedia);
+		}
+		return sources;
+	}
+	
+	
+	/*
+	 * Max. number of queries running in parallel against one source (-Dswt.source.DBPedia.maxConcurrent=4)
+	 */
+	public static int getSourceMaxConcurrent(QuerySource.Source source) {
+		return getInt("source." + source.name() + ".maxConcurrent", 4);
+	}
+	
+	/*
+	 * Endpoint supports text search via bif:contains (Virtuoso, e.g. DBPedia) -> used to narrow the label matching
+	 */
+	public static boolean isTextSearchSupported(QuerySource.Source source) {
+		return getBoolean("source." + source.name() + ".textSearch", source == QuerySource.Source.DBPedia);
+	}
+	
+	/*
+	 * Timeout of one source query in ms (<= 0: no timeout)
+	 */
+	public static long getSourceTimeout() {
+		return getLong("source.timeout", 60000);
+	}
+	
+	
+	/*
+	 * Number of URIs per label query
+	 */
+	public static int getLabelBatchSize() {
+		return getInt("labels.batchSize", 100);
+	}
+	
+	/*
+	 * Max. number of label queries running in parallel for one source query (<= 0: unbounded)
+	 */
+	public static int getLabelFanOut() {
+		return getInt("labels.fanOut", 8);
+	}
+	
+	
+	/*
+	 * Max. number of labels in the process-wide label cache (<= 0: unbounded)
+	 */
+	public static int getLabelCacheSize() {
+		return getInt("labels.cacheSize", 100000);
+	}
+	
+	/*
+	 * Persist the label cache alongside the triple cache (default: only in cache mode tdb,
+	 * in memory the labels would just be kept twice)
+	 */
+	public static boolean isLabelCachePersisted() {
+		return getBoolean("labels.persist", getCacheMode() == CacheMode.TDB);
+	}
+	
+	
+	//######################### HTTP ##########################################
+	
+	/*
+	 * Max. number of pooled connections over all endpoints
+	 */
+	public static int getHttpMaxConnections() {
+		return getInt("http.maxConnections", 100);
+	}
+	
+	/*
+	 * Max. number of pooled connections per endpoint that is not the endpoint of a source (httpclient default: 2)
+	 */
+	public static int getHttpMaxConnectionsPerRoute() {
+		return getInt("http.maxConnectionsPerRoute", 2);
+	}
+	
+	/*
+	 * Max. number of pooled connections to the endpoint of the source (-Dswt.source.DBPedia.maxConnections=20)
+	 */
+	public static int getHttpMaxConnections(QuerySource.Source source) {
+		return getInt("source." + source.name() + ".maxConnections", 20);
+	}
+	
+	public static int getHttpConnectTimeout() {
+		return getInt("http.connectTimeout", 10000);
+	}
+	
+	/*
+	 * Max. time in ms without data on an open connection (<= 0: no timeout)
+	 */
+	public static int getHttpReadTimeout() {
+		return getInt("http.readTimeout", (int) Math.max(0, getSourceTimeout()));
+	}
+	
+	/*
+	 * Max. idle time in ms of a kept alive connection, if the endpoint doesn't state it
+	 */
+	public static long getHttpKeepAlive() {
+		return getLong("http.keepAlive", 30000);
+	}
+	
+	/*
+	 * HTTP response cache (in memory, honours the cache headers of the endpoint)
+	 */
+	public static boolean isHttpCacheEnabled() {
+		return getBoolean("http.cache", false);
+	}
+	
+	public static int getHttpCacheEntries() {
+		return getInt("http.cacheEntries", 1000);
+	}
+	
+	public static long getHttpCacheMaxObjectSize() {
+		return getLong("http.cacheMaxObjectSize", 1024 * 1024);
+	}
+	
+	
+	//######################### Batching ##########################################
+	
+	/*
+	 * Time in ms to collect entities of concurrent requests for one query of a source (<= 0: no waiting)
+	 */
+	public static long getBatchWindow() {
+		return getLong("batch.window", 20);
+	}
+	
+	/*
+	 * Initial number of entities per query of the source (-Dswt.source.DBPedia.batchSize=10), adapted at runtime
+	 */
+	public static int getBatchSize(QuerySource.Source source) {
+		return getInt("source." + source.name() + ".batchSize", 10);
+	}
+	
+	public static int getBatchMaxSize(QuerySource.Source source) {
+		return getInt("source." + source.name() + ".batchMaxSize", 50);
+	}
+	
+	/*
+	 * Queries of the source slower than this (ms) reduce the batch size (<= 0: only failures)
+	 */
+	public static long getBatchTargetLatency(QuerySource.Source source) {
+		return getLong("source." + source.name() + ".batchTargetLatency", 10000);
+	}
+	
+	
+	//######################### Inference ##########################################
+	
+	/*
+	 * full: inference model over the whole cache, rebuilt after each change;
+	 * incremental: inferences of each source result are materialized when it is merged into the cache;
+	 * mapping: only the mapping axioms of the ontology are applied to each source result (rewrite table, no reasoner)
+	 */
+	public static InferenceMode getInferenceMode() {
+		String mode = getString("inference.mode", "mapping");
+		try {
+			return InferenceMode.valueOf(mode.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown inference mode '" + mode + "' -> fallback to mapping");
+			return InferenceMode.MAPPING;
+		}
+	}
+	
+	
+	//######################### Execution ##########################################
+	
+	/*
+	 * pool: bounded thread pool; virtual: virtual thread per source query and label package (JDK 21+, else fallback to pool)
+	 */
+	public static ExecutorMode getExecutorMode() {
+		String mode = getString("executor.mode", "pool");
+		try {
+			return ExecutorMode.valueOf(mode.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown executor mode '" + mode + "' -> fallback to pool");
+			return ExecutorMode.POOL;
+		}
+	}
+	
+	/*
+	 * Size of the shared pool executing the source queries
+	 */
+	public static int getExecutorThreads() {
+		return getInt("executor.threads", 16);
+	}
+	
+	
+	/*
+	 * Size of the pool executing the label queries (not used in virtual mode)
+	 */
+	public static int getLabelThreads() {
+		return getInt("executor.labelThreads", 16);
+	}
+	
+	
+	//######################### Helper ##########################################
+	
+	static String getString(String key, String def) {
+		return System.getProperty(PREFIX + key, def);
+	}
+	
+	static int getInt(String key, int def) {
+		String v = System.getProperty(PREFIX + key);
+		if(v == null){
+			return def;
+		}
+		try {
+			return Integer.parseInt(v.trim());
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid value for " + PREFIX + key + ": " + v);
+			return def;
+		}
+	}
+	
+	static long getLong(String key, long def) {
+		String v = System.getProperty(PREFIX + key);
+		if(v == null){
+			return def;
+		}
+		try {
+			return Long.parseLong(v.trim());
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid value for " + PREFIX + key + ": " + v);
+			return def;
+		}
+	}
+	
+	static boolean getBoolean(String key, boolean def) {
+		String v = System.getProperty(PREFIX + key);
+		if(v == null){
+			return def;
+		}
+		return Boolean.parseBoolean(v.trim());
+	}
+}
@@ -0,0 +1,278 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import NEREngine.NamedEntity;
+import NEREngine.NamedEntity.EntityType;
+
+/**
+ * Index of all entities in the local store: hashed lookup by (source, type, name),
+ * bounded size with LRU eviction and a time to live per entry.
+ * Evicted entries are collected and have to be removed from the store by the caller
+ * (drainEvicted) -> the triples of an entity are removed as soon as no entry references its graph anymore.
+ * Entries are striped over segments with own lock and LRU order by the hash of the key -> concurrent requests
+ * only contend on the same segment.
+ */
+public class EntityCache {
+	//bounded cache: min. size of a segment, otherwise the LRU order per segment differs too much from the global one
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private Segment[] segments;
+	private ConcurrentHashMap<String, Integer> graphRefs;
+	private ConcurrentLinkedQueue<Entry> evicted;
+	private long ttl;
+
+	/*
+	 * maxSize: max. number of entries (<= 0: unbounded), ttl: time to live of an entry in ms (<= 0: no expiry)
+	 */
+	public EntityCache(int maxSize, long ttl) {
+		this(maxSize, ttl, EngineConfig.getCacheStripes());
+	}
+
+	public EntityCache(int maxSize, long ttl, int stripes) {
+		int n = Math.max(1, stripes);
+		if(maxSize > 0){
+			n = Math.max(1, Math.min(n, maxSize / MIN_SEGMENT_SIZE));
+		}
+		this.segments = new Segment[n];
+		for (int i = 0; i < n; i++) {
+			segments[i] = new Segment(maxSize > 0 ? (maxSize + n - 1) / n : 0);
+		}
+		this.graphRefs = new ConcurrentHashMap<String, Integer>();
+		this.evicted = new ConcurrentLinkedQueue<Entry>();
+		this.ttl = ttl;
+	}
+
+	public boolean contains(Key key) {
+		return segment(key).contains(key);
+	}
+
+	public void put(Entry e) {
+		segment(e.getKey()).put(e);
+	}
+
+	/*
+	 * Bulk load of entries from the store (oldest first to get a sensible LRU order)
+	 */
+	public void load(List<Entry> list) {
+		List<Entry> sorted = new ArrayList<Entry>(list);
+		sorted.sort((a, b) -> Long.compare(a.getLoaded(), b.getLoaded()));
+		for (Entry e : sorted) {
+			put(e);
+		}
+	}
+
+	/*
+	 * Remove all expired entries (e.g. on startup or before a write)
+	 */
+	public void expire() {
+		for (Segment s : segments) {
+			s.expire();
+		}
+	}
+
+	/*
+	 * Remove all entries of one source
+	 */
+	public void invalidate(QuerySource.Source source) {
+		for (Segment s : segments) {
+			s.invalidate(source);
+		}
+	}
+
+	/*
+	 * Entries removed since the last call -> have to be removed from the store
+	 */
+	public List<Entry> drainEvicted() {
+		List<Entry> result = new ArrayList<Entry>();
+		Entry e;
+		while((e = evicted.poll()) != null){
+			result.add(e);
+		}
+		return result;
+	}
+
+	public boolean hasEvicted() {
+		return !evicted.isEmpty();
+	}
+
+	public boolean isGraphReferenced(String graph) {
+		return graphRefs.containsKey(graph);
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			size += s.size();
+		}
+		return size;
+	}
+
+	private Segment segment(Key key) {
+		return segments[(key.hashCode() & 0x7fffffff) % segments.length];
+	}
+
+	private boolean isExpired(Entry e) {
+		return ttl > 0 && System.currentTimeMillis() - e.getLoaded() > ttl;
+	}
+
+	private void acquire(Entry e) {
+		graphRefs.merge(e.getGraph(), 1, Integer::sum);
+	}
+
+	private void release(Entry e) {
+		graphRefs.computeIfPresent(e.getGraph(), (g, refs) -> refs <= 1 ? null : refs - 1);
+		evicted.add(e);
+	}
+
+
+	//######################### Segment ##########################################
+
+	private class Segment {
+		private LinkedHashMap<Key, Entry> entries;
+		private int maxSize;
+
+		Segment(int maxSize) {
+			//access order -> iteration starts with least recently used entry
+			this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		synchronized boolean contains(Key key) {
+			Entry e = entries.get(key);
+			if(e == null){
+				return false;
+			}
+			if(isExpired(e)){
+				entries.remove(key);
+				release(e);
+				return false;
+			}
+			return true;
+		}
+
+		synchronized void put(Entry e) {
+			acquire(e);
+			Entry old = entries.put(e.getKey(), e);
+			if(old != null){
+				release(old);
+			}
+
+			//LRU eviction
+			Iterator<Entry> it = entries.values().iterator();
+			while(maxSize > 0 && entries.size() > maxSize && it.hasNext()){
+				Entry eldest = it.next();
+				it.remove();
+				release(eldest);
+			}
+		}
+
+		synchronized void expire() {
+			Iterator<Entry> it = entries.values().iterator();
+			while(it.hasNext()){
+				Entry e = it.next();
+				if(isExpired(e)){
+					it.remove();
+					release(e);
+				}
+			}
+		}
+
+		synchronized void invalidate(QuerySource.Source source) {
+			Iterator<Entry> it = entries.values().iterator();
+			while(it.hasNext()){
+				Entry e = it.next();
+				if(e.getKey().getSource() == source){
+					it.remove();
+					release(e);
+				}
+			}
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+
+
+	//######################### Key and Entry ##########################################
+
+	public static class Key {
+		private QuerySource.Source source;
+		private EntityType type;
+		private String name;
+
+		public Key(QuerySource.Source source, NamedEntity e) {
+			this(source, e.getType(), e.getName());
+		}
+
+		public Key(QuerySource.Source source, EntityType type, String name) {
+			this.source = source;
+			this.type = type;
+			this.name = name;
+		}
+
+		public QuerySource.Source getSource() {
+			return source;
+		}
+
+		public EntityType getType() {
+			return type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(o == null || o.getClass() != Key.class){
+				return false;
+			}
+			Key k = (Key) o;
+			return k.source == source && k.type == type && k.name.equals(name);
+		}
+
+		@Override
+		public int hashCode() {
+			return (source.hashCode() * 31 + type.hashCode()) * 31 + name.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return source + "/" + type + "/" + name;
+		}
+	}
+
+	public static class Entry {
+		private Key key;
+		private String graph;
+		private long loaded;
+
+		public Entry(Key key, String graph, long loaded) {
+			this.key = key;
+			this.graph = graph;
+			this.loaded = loaded;
+		}
+
+		public Key getKey() {
+			return key;
+		}
+
+		/*
+		 * Named graph in the store holding the triples of this entity
+		 */
+		public String getGraph() {
+			return graph;
+		}
+
+		public long getLoaded() {
+			return loaded;
+		}
+	}
+}
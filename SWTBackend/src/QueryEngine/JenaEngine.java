@@ -5,12 +5,22 @@ package QueryEngine;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.query.Query;
@@ -20,8 +30,14 @@ import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.*;
+import org.apache.jena.reasoner.Reasoner;
 import org.apache.jena.reasoner.ReasonerRegistry;
+import org.apache.jena.sparql.util.FmtUtils;
 import org.apache.jena.util.FileManager;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
 
 import NEREngine.CoreNLPEngine;
 import NEREngine.NamedEntity;
@@ -33,38 +49,76 @@ import NEREngine.NamedEntity.EntityType;
  *
  */
 public class JenaEngine implements QueryEngine {	
+	private static CacheStore store;
 	private static Model model;
-	private static InfModel infModel;
+	private static Model infModel;
 	private static OntModel ontoModel;
-	private static List<NamedEntity> inCache;
+	private static Reasoner reasoner;
+	private static OntologyMapping mapping;
+	private static EngineConfig.InferenceMode inference;
+	private static EntityCache cache;
+	private static LabelIndex labelIndex;
+	private static TripleIndex index;
 	private static final String PREFIX = ":";
+	private static final String LOCAL_NS = "http://webprotege.stanford.edu/";
 	private static Boolean modelChanged = false;
 	private static QueryProperties availableProperties;
+	//source queries in flight per (source, type, entity) -> concurrent requests for the same entity share one query
+	private static ConcurrentHashMap<EntityCache.Key, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<EntityCache.Key, CompletableFuture<Void>>();
+	private static SourceQueryBatcher batcher;
 	
-	private Model localModel;
-	private List<NamedEntity> entities;
-	private QueryProperties qp;
+	//result of the last queryEntities call of this instance (deprecated stateful API, one caller per instance)
+	private volatile QueryResult lastResult;
 	
 	
 	
 	//######################### Public methods: Interface ##########################################
 	
-	public JenaEngine() {		
+	public JenaEngine() {
+		init();
+	}
+	
+	// ------- Shared state is initialized once for all instances (requests are stateless -> one instance can serve concurrent requests)
+	private static synchronized void init() {
 		if(ontoModel == null){
 			ontoModel = loadLocalOntology();
+			inference = EngineConfig.getInferenceMode();
+			if(inference == EngineConfig.InferenceMode.MAPPING){
+				mapping = new OntologyMapping(ontoModel);
+			}else{
+				//schema is bound once -> reasoning per model only on its own triples
+				//(full mode: inferences of each result are kept with it for the triple index, requests reason on the whole model)
+				reasoner = ReasonerRegistry.getOWLMicroReasoner().bindSchema(ontoModel);
+			}
 		}
-		if(inCache == null){
-			inCache = new ArrayList<NamedEntity>();
-		}		
-		if(model == null){
-			//That Memory Model doesn't work as expected -> only in memory during JVM lifetime -> restart: no model anymore
-			model = ModelFactory.createMemModelMaker().openModel("LocalCache", false);
-			System.out.println("Loaded model of size: " + model.size());
+		if(store == null){
+			//Memory: only during JVM lifetime; TDB: persisted on disk -> restart keeps the cache
+			store = new CacheStore(EngineConfig.getCacheMode(), EngineConfig.getCacheDirectory());
+			model = store.getModel();
+			cache = new EntityCache(EngineConfig.getCacheMaxEntities(), EngineConfig.getCacheTTL());
+			store.beginRead();
+			try {
+				cache.load(store.loadEntries());
+				//expired/evicted entries are removed from the store with the next write
+				cache.expire();
+				if(EngineConfig.isLabelCachePersisted()){
+					LabelCache.getInstance().load(store.loadLabels());
+				}
+				labelIndex = new LabelIndex();
+				indexLabels(model);
+				buildIndex();
+				System.out.println("Loaded model of size: " + model.size() + "; cached entities: " + cache.size() + "; cached labels: " + LabelCache.getInstance().size());
+			} finally {
+				store.end();
+			}
 			modelChanged = true;
 		}
 		if(availableProperties == null){
 			availableProperties = readAvailableProperties();
 		}		
+		if(batcher == null){
+			batcher = new SourceQueryBatcher(JenaEngine::mergeResult);
+		}
 	}	
 	
 
@@ -94,53 +148,88 @@ public class JenaEngine implements QueryEngine {
 	}
 
 	/* (non-Javadoc)
-	 * @see QueryEngine.QueryEngine#queryEntityProperties(java.util.List)
+	 * @see QueryEngine.QueryEngine#query(java.util.List)
 	 * Query properties with full set of available properties
 	 */
 	@Override
-	public void queryEntities(List<NamedEntity> entities) {
-		queryEntities(entities, availableProperties);
+	public QueryResult query(List<NamedEntity> entities) {
+		return query(entities, availableProperties);
 	}
 
 	/* (non-Javadoc)
-	 * @see QueryEngine.QueryEngine#queryEntityProperties(java.util.List, java.util.Properties)
-	 * Query properties with custom set of properties
+	 * @see QueryEngine.QueryEngine#query(java.util.List, QueryEngine.QueryProperties)
+	 * Query properties with custom set of properties; all state of the request is local -> thread-safe
 	 */
 	@Override
-	public void queryEntities(List<NamedEntity> entities,
-			QueryProperties props) {
+	public QueryResult query(List<NamedEntity> entities, QueryProperties props) {
 		if(props == null){
 			props = availableProperties;
 		}
 		
 		//add copies of entities to ensure that list cannot be change from outside
-		this.entities = copyList(entities);
-				
-		this.qp = props;
-		this.localModel = ModelFactory.createDefaultModel();
+		List<NamedEntity> request = copyList(entities);
 		
 		//Query Sources to build model
-		handleParallelSourceQueries();
-		
-		//Query local model		
-		handleLocalQueries();		
+		handleParallelSourceQueries(request);
 		
+		//Query local model (snapshot of the store, concurrent writes are not visible)
+		store.beginRead();
+		try {
+			handleLocalQueries(request, props);
+		} finally {
+			store.end();
+		}
+		return new QueryResult(request, queryContextTriples(request));
+	}
+
+	/* (non-Javadoc)
+	 * @see QueryEngine.QueryEngine#queryEntityProperties(java.util.List)
+	 */
+	@Override
+	@Deprecated
+	public void queryEntities(List<NamedEntity> entities) {
+		queryEntities(entities, availableProperties);
+	}
+
+	/* (non-Javadoc)
+	 * @see QueryEngine.QueryEngine#queryEntityProperties(java.util.List, java.util.Properties)
+	 */
+	@Override
+	@Deprecated
+	public void queryEntities(List<NamedEntity> entities,
+			QueryProperties props) {
+		lastResult = query(entities, props);
 	}
 	
 	@Override
+	@Deprecated
 	public List<NamedEntity> getResultEntities(){
-		return copyList(this.entities);
+		QueryResult r = lastResult;
+		return r == null ? new ArrayList<NamedEntity>() : r.getEntities();
 	}
 	
 	@Override
+	@Deprecated
 	public List<String[]> getContextTriples(){		
-		return queryContextTriples(infModel);
+		QueryResult r = lastResult;
+		return r == null ? new ArrayList<String[]>() : r.getContextTriples();
 	}	
 	
 
 
+	/*
+	 * Drop all cached data of one source, the cache of the other sources stays untouched
+	 */
+	public static void invalidateSource(QuerySource.Source source) {
+		if(store == null){
+			return;
+		}
+		cache.invalidate(source);
+		applyEvictions();
+	}
+
 	//######################### Private methods doing actual work ##########################################
-	private List<NamedEntity> copyList(List<NamedEntity> entities){
+	private static List<NamedEntity> copyList(List<NamedEntity> entities){
 		List<NamedEntity> copy = new ArrayList<NamedEntity>();
 		for (NamedEntity ne : entities) {
 			copy.add(new NamedEntity(ne));
@@ -149,7 +238,7 @@ public class JenaEngine implements QueryEngine {
 	}
 	
 
-	private OntModel loadLocalOntology() {
+	private static OntModel loadLocalOntology() {
 		OntModel m = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
 		
 		//Load local Ontology from file
@@ -163,142 +252,280 @@ public class JenaEngine implements QueryEngine {
 		return m;
 	}
 
-	private void handleParallelSourceQueries() {
-		//Initialize HashMaps
-		HashMap<EntityType, List<NamedEntity>> queryEntities = new HashMap<EntityType, List<NamedEntity>> ();
-		for (EntityType et : EntityType.values()) {
-			queryEntities.put(et,new ArrayList<NamedEntity>());
-		}
-		
-		//Determine which entities to query per entity type				
-		for (NamedEntity entity : entities) {
-			if(!inCache.contains(entity) && !queryEntities.get(entity.getType()).contains(entity)){
-				//Has to be add to query
-				queryEntities.get(entity.getType()).add(entity);
-			}else{
-				System.out.println("Found in cache: " + entity.getType() + " " + entity.getName());
-			}			
-		}		
-		
+	private void handleParallelSourceQueries(List<NamedEntity> entities) {
+		List<QuerySource.Source> sources = EngineConfig.getSources();
 		
-		//Query sources in parallel per entity type if requested
-		//(without filter on entity type queries get to large -> aborted)
+		//Determine which entities to query per source -> only what the source is missing
+		//and not queried already by another request (wait for its query instead)
+		//Queries per source and entity type in batches over all requests (without filter on entity type queries get to large -> aborted)
 		System.out.println("Start load from sources...");
 		Long start = System.nanoTime();
-		ThreadGroup group = new ThreadGroup( entities.toString() );
-		for (EntityType et : queryEntities.keySet()) {
-			if(!queryEntities.get(et).isEmpty()){
-	
-				//DBPedia
-				new BackgroundSourceQueryHandler(group, QuerySource.Source.DBPedia, et, queryEntities.get(et)).start();
-				//LinkedMDB
-				//new BackgroundSourceQueryHandler(group, QuerySource.Source.LinkedMDB, et, queryEntities.get(et)).start();
+		List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+		HashSet<EntityCache.Key> claimed = new HashSet<EntityCache.Key>();
+		for (QuerySource.Source s : sources) {
+			for (NamedEntity entity : entities) {
+				EntityCache.Key key = new EntityCache.Key(s, entity);
+				if(cache.contains(key) || claimed.contains(key)){
+					System.out.println("Found in cache of " + s + ": " + entity.getType() + " " + entity.getName());
+					continue;
+				}
+				CompletableFuture<Void> own = new CompletableFuture<Void>();
+				CompletableFuture<Void> running = inFlight.putIfAbsent(key, own);
+				if(running != null){
+					System.out.println("Query of " + s + " running for: " + entity.getType() + " " + entity.getName());
+					pending.add(running);
+				}else if(cache.contains(key)){
+					//merged in the meantime
+					release(key, own);
+				}else{
+					//Has to be add to query, result is merged before the batch completes
+					claimed.add(key);
+					pending.add(batcher.submit(s, entity.getType(), entity)
+							.whenComplete((v, e) -> release(key, own)));
+				}
 			}
 		}
 		
-		//Wait till all are finished and derive model
-		Model resModel;
+		//Wait till all are finished (failures and timeouts are already handled per query)
 		try {
-			BackgroundSourceQueryHandler[] threads = new BackgroundSourceQueryHandler[group.activeCount()];
-			group.enumerate(threads);
-			for (int i = 0; i < threads.length; i++) {
-				threads[i].join();
-				resModel = threads[i].getResultModel(); 
-				if(resModel != null && resModel.size() > 0){
-					model.add(resModel);
-					modelChanged = true;
-					//Update Cache: TODO: implement Source specific cache?
-					for(NamedEntity e : threads[i].getEntities()){
-						inCache.add(e);
+			CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).join();
+		} catch (CompletionException | CancellationException e) {
+			System.out.println(e.getMessage());
+		}
+		
+		//Entities expired during the lookup above have to be removed, even if nothing was loaded
+		if(cache.hasEvicted()){
+			applyEvictions();
+		}
+		System.out.println("Load of Sources finished. Time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");
+	}
+	
+	// ------- Query of the entity finished (merged or failed) -> next request for it checks the cache again
+	private static void release(EntityCache.Key key, CompletableFuture<Void> own) {
+		inFlight.remove(key, own);
+		own.complete(null);
+	}
+	
+	// ------- Ingest the result of one source query: map it to the own vocabulary and write it into the local store
+	private static void mergeResult(BackgroundSourceQueryHandler handler) {
+		Model resModel = handler.getResultModel();
+		Model inferred = null;
+		//only on the new triples (outside of the write lock)
+		if(resModel != null && resModel.size() > 0){
+			switch (inference) {
+			case MAPPING:
+				inferred = mapping.materialize(resModel);
+				break;
+			case INCREMENTAL:
+			case FULL:
+				inferred = inferDelta(resModel);
+				break;
+			}
+		}
+		writeResult(handler, resModel, inferred);
+	}
+	
+	// ------- Own write transaction per result: triples and their inferences share one graph -> evicted together
+	private static synchronized void writeResult(BackgroundSourceQueryHandler handler, Model resModel, Model inferred) {
+		long size;
+		Model added = null;
+		List<Triple> removed;
+		List<EntityCache.Entry> entries = new ArrayList<EntityCache.Entry>();
+		store.beginWrite();
+		try {
+			if(resModel != null && resModel.size() > 0){
+				added = inferred == null ? resModel : resModel.union(inferred);
+				//Update Cache: source specific
+				String graph = store.add(added, handler.getSource());
+				indexLabels(resModel);
+				long now = System.currentTimeMillis();
+				for(NamedEntity e : handler.getEntities()){
+					EntityCache.Entry entry = new EntityCache.Entry(new EntityCache.Key(handler.getSource(), e), graph, now);
+					entries.add(entry);
+					store.addEntry(entry);
+				}
+				modelChanged = true;
+			}
+			removed = removeEvictedEntries();
+			persistLabels();
+			size = model.size();
+			store.commit();
+		} finally {
+			store.end();
+		}
+		//cached only once the store has the entities (failed commit -> queried again with the next request)
+		for (EntityCache.Entry entry : entries) {
+			cache.put(entry);
+		}
+		//triple index per graph: added with the new graph, removed with the evicted ones
+		if(added != null){
+			addToIndex(added.getGraph());
+		}
+		index.remove(removed.iterator());
+		System.out.println("Merged result of " + handler + ". Model size: " + size);
+	}
+	
+	// ------- Index of the ontology and all cached graphs (on startup)
+	private static void buildIndex() {
+		Long start = System.nanoTime();
+		index = new TripleIndex();
+		addToIndex(ontoModel.getGraph());
+		for (String graph : store.listGraphs()) {
+			addToIndex(store.getGraph(graph).getGraph());
+		}
+		System.out.println("Built triple index: " + index.size() + " triples, " + index.nodes() + " nodes; Time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");
+	}
+	
+	private static void addToIndex(Graph g) {
+		ExtendedIterator<Triple> it = g.find(Node.ANY, Node.ANY, Node.ANY);
+		try {
+			index.add(it);
+		} finally {
+			it.close();
+		}
+	}
+	
+	private static synchronized void applyEvictions() {
+		List<Triple> removed;
+		store.beginWrite();
+		try {
+			removed = removeEvictedEntries();
+			store.commit();
+		} finally {
+			store.end();
+		}
+		index.remove(removed.iterator());
+	}
+
+	// ------- Remove entries evicted from the cache (expired or LRU) and their triples from the store (inside write transaction)
+	// -> triples of the removed graphs, to be removed from the triple index after the commit
+	private static List<Triple> removeEvictedEntries() {
+		List<Triple> removed = new ArrayList<Triple>();
+		List<EntityCache.Entry> evicted = cache.drainEvicted();
+		for (EntityCache.Entry e : evicted) {
+			store.removeEntry(e);
+			if(!cache.isGraphReferenced(e.getGraph())){
+				//labels of the graph -> remove from index if not part of another graph
+				Model g = store.getGraph(e.getGraph());
+				List<Resource> labeled = g.listSubjectsWithProperty(RDFS.label).toList();
+				removed.addAll(g.getGraph().find(Node.ANY, Node.ANY, Node.ANY).toList());
+				store.removeGraph(e.getGraph());
+				for (Resource r : labeled) {
+					if(!model.contains(r, RDFS.label)){
+						labelIndex.remove(r.getURI());
 					}
 				}
 			}
-		} catch (InterruptedException e) {
-			System.out.println(e.getMessage());
+			modelChanged = true;
+		}
+		if(!evicted.isEmpty()){
+			System.out.println("Evicted from cache: " + evicted.size() + " entities");
 		}
-		System.out.println("Load of Sources finished. Model size: " + model.size()+ "; Time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");
+		return removed;
 	}
 
-	private void handleLocalQueries() {
+	// ------- Inferred triples of a new result (ontology + result only), without the triples of the result itself
+	private static Model inferDelta(Model delta) {
+		Long start = System.nanoTime();
+		InfModel inf = ModelFactory.createInfModel(reasoner, delta);
+		Model result = ModelFactory.createDefaultModel();
+		StmtIterator it = inf.listStatements();
+		while (it.hasNext()) {
+			Statement st = it.next();
+			if(!delta.contains(st) && isDataResource(delta, st.getSubject())
+					&& !st.getPredicate().getNameSpace().equals(RDFS.getURI()) && !st.getPredicate().getNameSpace().equals(OWL.getURI())){
+				result.add(st);
+			}
+		}
+		System.out.println("Inferred " + result.size() + " triples for " + delta.size() + " new triples; Time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");
+		return result;
+	}
+
+	// ------- Resource described by the model, no class or property (axioms of the reasoner and the ontology are not materialized)
+	private static boolean isDataResource(Model m, Resource r) {
+		if(!m.contains(r, null) && !m.contains(null, null, r)){
+			return false;
+		}
+		return !r.isURIResource() || !(ontoModel.containsResource(r) || m.contains(null, RDF.type, r)
+				|| m.contains(null, ResourceFactory.createProperty(r.getURI())));
+	}
+
+	// ------- Add english labels of the model to the label index
+	private static void indexLabels(Model m) {
+		StmtIterator it = m.listStatements(null, RDFS.label, (RDFNode) null);
+		while (it.hasNext()) {
+			Statement st = it.next();
+			if(st.getSubject().isURIResource() && st.getObject().isLiteral()
+					&& (st.getLanguage().isEmpty() || st.getLanguage().toLowerCase().startsWith("en"))){
+				labelIndex.add(st.getSubject().getURI(), st.getString());
+			}
+		}
+	}
+
+	// ------- Write new labels of the label cache into the store (inside write transaction)
+	private static void persistLabels() {
+		if(EngineConfig.isLabelCachePersisted()){
+			LabelCache labelCache = LabelCache.getInstance();
+			store.removeLabels(labelCache.drainEvicted());
+			store.addLabels(labelCache.drainAdded());
+		}
+	}
+
+	private void handleLocalQueries(List<NamedEntity> entities, QueryProperties qp) {
 
 		//Construct inference model (Ontology + loaded triples) 
 		//Try to identify correct entities and context!
 		//-> count (indirect) relations between entities and choose most relevant entities
 		//System.out.println("Relevant URIs in Context: " + relevantURIs);
-		checkInfModel();
-		deriveRelevantURIs(infModel);
+		Model m = checkInfModel();
+		deriveRelevantURIs(entities);
 		
-		localModel = constructContextModel();		
+		Model localModel = constructContextModel(m, entities);		
 		
-				
-		//query each entity separately on local model				
-		for (NamedEntity e : entities) {
-			//construct dictionary for entity type specific properties 
-			Hashtable<String, String> propDic = prepareProperties(qp.get(e.getType()));
-			
-			//Construct local query
-			String lq = constructLocalQuery(propDic, e.getURI());		
-		
-			//Execute Query
-			//result.add(executeLocalQuery(lq,propDic,cmodel, e));
-			executeLocalQuery(lq,propDic,localModel, e);	
+		//query all entities at once on local model
+		Query lq = constructLocalQuery(entities, qp);
+		if(lq != null){
+			executeLocalQuery(lq, localModel, entities);
 		}
 	
 	}
 	
-	// ------- Prepare properties -> assign indices for variable to technical property names
-	private Hashtable<String, String> prepareProperties(List<String> props) {
-		Hashtable<String, String> properties = new Hashtable<String, String>();
-		int i = 1;
-		for (String prop : props) {
-			properties.put(prop, Integer.toString(i));
-			i++;
+	// ------- Construct local query: pairs of entity and requested property (entity type specific) -> one row per value, no cross product of OPTIONALs
+	// the english label of each entity is read in the same pass (pair of entity and rdfs:label)
+	private Query constructLocalQuery(List<NamedEntity> entities, QueryProperties qp) {
+		QueryTemplate.Parameters params = new QueryTemplate.Parameters();
+		String[] vars = {"e", "p"};
+		//distinct pairs: several entities can be resolved to the same URI, each value is added to all of them
+		LinkedHashSet<List<Node>> pairs = new LinkedHashSet<List<Node>>();
+		for (NamedEntity e : entities) {
+			if(e.getURI() == null || e.getURI().isEmpty()){
+				continue;
+			}
+			Node res = NodeFactory.createURI(e.getURI());
+			pairs.add(Arrays.asList(res, RDFS.label.asNode()));
+			for (String prop : qp.get(e.getType())) {
+				pairs.add(Arrays.asList(res, NodeFactory.createURI(LOCAL_NS + prop)));
+			}
+		}
+		if(pairs.isEmpty()){
+			return null;
+		}
+		for (List<Node> pair : pairs) {
+			params.row(vars, pair.get(0), pair.get(1));
 		}
-		return properties;
-	}
-		
-	// ------- Construct local query: incl. dynamic list of properties
-	private String constructLocalQuery(Hashtable<String, String> props, String uri) {
-		String queryString = "";
-		String res = "<" + uri + ">";
-		
-		// ---- Construct Query ----------
-		// 1) Prefix (only basics and the own prefix for local queries)
-		
-		queryString += "PREFIX owl: <http://www.w3.org/2002/07/owl#>"
-				+ " PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>"
-				+ " PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>"
-				+ " PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>"
-				+ " PREFIX " + PREFIX + " <http://webprotege.stanford.edu/>"
-				;
-		
-		// 2) Select Clause
-		queryString += " SELECT ?l";
-		for (Entry<String,String> entry: props.entrySet()) {
-			queryString += " ?" + entry.getValue();
-		}	
-		// 3) Where Clause	
-		// 3a) static part
-		queryString += " WHERE {"
-				+ res + " rdfs:label ?l."
-			;
-		// 3b) dynamic part
-		//queryString += " OPTIONAL { ";
-		for (Entry<String,String> entry: props.entrySet()) {
-			queryString += " OPTIONAL { " + res + " " + PREFIX + entry.getKey() + " ?" + entry.getValue() + ". }";
-		}
-		//queryString += " }";
-		// 3c) Filter
-		queryString += " FILTER(LANG(?l) = '' || LANGMATCHES(LANG(?l), 'en'))";
-		
-		// 3d) String conversion
-		queryString += " BIND( str(?l) as ?label )"
-				+ "}"; 
 		
-		return queryString;
+		// ---- Query template: entity needs an english label ----------
+		return QueryTemplate.of("PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>"
+				+ " SELECT ?e ?p ?o"
+				+ " WHERE {"
+				+ " VALUES (?e ?p) { }"
+				+ " ?e ?p ?o."
+				+ " FILTER(?p != rdfs:label || LANG(?o) = '' || LANGMATCHES(LANG(?o), 'en'))"
+				+ " FILTER EXISTS { ?e rdfs:label ?l. FILTER(LANG(?l) = '' || LANGMATCHES(LANG(?l), 'en')) }"
+				+ "}").bind(params);
 	}
 	
-	private String deriveEntityClasses(EntityType et) {
+	private static String deriveEntityClasses(EntityType et) {
 		String type = PREFIX;
 		switch (et) {
 		case ORGANIZATION:
@@ -316,174 +543,114 @@ public class JenaEngine implements QueryEngine {
 
 
 	// ------- Handle local query execution
-	private void executeLocalQuery(String query, Hashtable<String, String> propDic, Model m, NamedEntity ne){
+	private void executeLocalQuery(Query q, Model m, List<NamedEntity> entities){
 		
-		//label is always present and has special logic -> enhance property dictionary just for reading them 
-		Hashtable<String, String> enhDic = new Hashtable<String, String> ();
-		enhDic.putAll(propDic);
-		enhDic.put("label", "label");
-		
-		//Parse Query
-		//System.out.println(query);
-		Query q = QueryFactory.create(query); 
-		//System.out.println(q);
+		//entities by URI (several entities can be resolved to the same URI)
+		HashMap<String, List<NamedEntity>> byURI = new HashMap<String, List<NamedEntity>>();
+		for (NamedEntity e : entities) {
+			List<NamedEntity> list = byURI.get(e.getURI());
+			if(list == null){
+				list = new ArrayList<NamedEntity>();
+				byURI.put(e.getURI(), list);
+			}
+			list.add(e);
+		}
 		
 		//Execute Query
+		//System.out.println(q);
 		Long start = System.nanoTime();
 		QueryExecution qe = QueryExecutionFactory.create(q, m);
 		ResultSet RS = qe.execSelect();
 		
 		
-		//Parse Result of Query
+		//Parse Result of Query: one value per row
 		while (RS.hasNext()) {
 			QuerySolution tuple = RS.next();
-			handleQueryTuple(tuple, enhDic, ne);
+			String p;
+			String v;
+			if(tuple.getResource("p").equals(RDFS.label)){
+				//label as plain string (str(?l))
+				p = "label";
+				v = tuple.getLiteral("o").getLexicalForm();
+			}else{
+				p = tuple.getResource("p").getURI().substring(LOCAL_NS.length());
+				v = tuple.get("o").toString();
+			}
+			for (NamedEntity ne : byURI.get(tuple.getResource("e").getURI())) {
+				ne.addPropertyValue(p, v, 1);
+			}
 		}
 		System.out.println("Queried local model in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms, size: " + RS.getRowNumber());
 		qe.close();
 	}
 	
 	
-	// ------- Construct model: load own Ontology + queried model(s) and do some Inference
-	private void checkInfModel() {	
+	// ------- Construct model: load own Ontology + queried model(s) and do some Inference -> current model for the request
+	private static synchronized Model checkInfModel() {	
 		//get the basic model, enhance with ontology, do inference
 		//Reasoner takes to much time, but OWLMicro seems to work but could be to simple ... https://jena.apache.org/documentation/inference
 		Long start = System.nanoTime();
-		if(modelChanged){
+		if(inference != EngineConfig.InferenceMode.FULL){
+			//inferences are already part of the cache -> plain (dynamic) union with the ontology, no reasoning per request
+			if(infModel == null){
+				infModel = ModelFactory.createUnion(model, ontoModel);
+			}
+		}else if(modelChanged){
 			//it is much more efficient to reason on basic statement than do reasoning on a previously inferred model
 			infModel = ModelFactory.createInfModel( ReasonerRegistry.getOWLMicroReasoner(), ModelFactory.createUnion(model, ontoModel));
 			modelChanged = false;
 		}		
 
 		System.out.println("Infered Model size: " + model.size() + "; Time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");				
-
+		return infModel;
 	}
 	
-	private Model constructContextModel(){
+	private Model constructContextModel(Model m, List<NamedEntity> entities){
 		//Derive relevant subspace model based on identified URIs -> Describe of URIs
-		String filter = "";
-
+		List<String> uris = new ArrayList<String>();
 		for (NamedEntity ne : entities) {
-			if(filter != ""){
-				filter += " || ";
+			if(!ne.getURI().isEmpty()){
+				uris.add(ne.getURI());
 			}
-			filter += "?s = <" + ne.getURI() + ">";
 		}
 		
-		String queryString = "DESCRIBE ?s WHERE { "
+		Query q = QueryTemplate.of("DESCRIBE ?s WHERE { "
+				+ " VALUES ?s { }"
 				+ " ?s ?p ?o"
-				+ " FILTER ("  + filter + " ) } ";
+				+ " } ").bind(new QueryTemplate.Parameters().values("s", QueryTemplate.uris(uris)));
 		
-		Query q = QueryFactory.create(queryString);
-		QueryExecution qe = QueryExecutionFactory.create(q, infModel);
-		return ModelFactory.createInfModel(ReasonerRegistry.getOWLMicroReasoner(), qe.execDescribe());		
+		QueryExecution qe = QueryExecutionFactory.create(q, m);
+		if(inference != EngineConfig.InferenceMode.FULL){
+			//description contains the materialized inferences already
+			return qe.execDescribe();
+		}
+		//reasoner of the shared inference model is not thread-safe -> one describe at a time
+		Model description;
+		synchronized (m) {
+			description = qe.execDescribe();
+		}
+		return ModelFactory.createInfModel(ReasonerRegistry.getOWLMicroReasoner(), description);		
 	}
 	
-	private void deriveRelevantURIs(Model m) {
+	private void deriveRelevantURIs(List<NamedEntity> entities) {
 		
-		for (NamedEntity e : entities) {	
-			
-			// ---- Derive values ----
-			// rdf:type 
-			String type = deriveEntityClasses(e.getType());
-			
-			// rdf:label Regex
-			String name = e.getRegexName();
-			
-			//construct filter part (same for every part of the union)
-			String filter = " LANGMATCHES(LANG(?l1), 'en')"
-					+ " && LANGMATCHES(LANG(?l2), 'en')"
-					+ " && regex(?l1,'" + name + "')"
-					;
-			
-			//Add context info to filter, if context available
-			if(entities.size() > 1){
-				//derive the other entities in the context 
-				String others = "";
-				for (NamedEntity e2 : entities) {
-					if(e2.getName() != e.getName()){
-						if(others != ""){
-							others += " || ";
-						}
-						others += "regex(?l2,'" + name + "')";
-					}
-				}
-				//add to filter
-				filter += " && ( " + others + " ) ";
-			}
-					
-			
-			// Union part 1: direct relations
-			String part1 = "SELECT ?e1 ?p1  WHERE {"
-					+ " ?e1 ?p1 ?e2."
-					+ " ?e1 rdfs:label ?l1."
-					+ " ?e2 rdfs:label ?l2."
-					+ " ?e1 rdf:type " + type + "."
-					+ " FILTER ( " + filter + " ) }";
-			
-			// Union part 2: indirect relations
-			String part2 = "SELECT ?e1 ?p1  WHERE {"
-					+ " ?e1 ?p1 ?o."
-					+ " ?e2 ?p2 ?o."
-					+ " ?e1 rdfs:label ?l1."
-					+ " ?e2 rdfs:label ?l2."
-					+ " ?e1 rdf:type " + type + "."
-					+ " FILTER (" + filter + ")}";
-			
-			// Complete Query
-			String queryString = "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>"
-					+ " PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>"
-					+ " PREFIX " + PREFIX + " <http://webprotege.stanford.edu/>"
-					+ " SELECT ?e1 (count(?p1) as ?pCount) { { "
-					+ part1
-					+ " } UNION { " 
-					+ part2
-					+ " } } GROUP BY ?e1"
-					; 
-			//System.out.println(queryString);
-			Query query = QueryFactory.create(queryString); 
-			//System.out.println(query);
-			QueryExecution qe = QueryExecutionFactory.create(query, m); 
-			ResultSet results = qe.execSelect(); 
-			int max = 0;
-			String value = "";
-			while(results.hasNext()) {  
-				QuerySolution sol = results.next(); 
-				//System.out.println(sol);
-				if( sol.contains("pCount") && sol.get("pCount").asLiteral().getInt() > max){
-					max = sol.get("pCount").asLiteral().getInt();
-					value = sol.get("e1").toString();
-				}
-			}
-			e.setURI(value);
-			qe.close();
+		//Candidates per entity via local label index (instead of regex scan over all labels)
+		List<Set<String>> candidates = new ArrayList<Set<String>>();
+		List<Node> types = new ArrayList<Node>();
+		for (NamedEntity e : entities) {
+			candidates.add(labelIndex.lookup(e));
+			types.add(NodeFactory.createURI(LOCAL_NS + deriveEntityClasses(e.getType()).substring(PREFIX.length())));
 		}
-	}
-
-
-	// ------- Parse Tuple of local query result: based on Entity  
-		private void handleQueryTuple(QuerySolution tuple,
-			Hashtable<String, String> propDic, NamedEntity ne) {
-			String v = "";
-			String k = "";
-			
-			//handle dynamic properties
-			for (Entry<String,String> entry: propDic.entrySet()) {
-				v = new String();
-				k = new String(); 
-				k = entry.getKey();
-				if(tuple.contains(entry.getValue())){
-					v = tuple.get(entry.getValue()).toString();
-					ne.addPropertyValue(k, v, 1);
-					
-				}
-			}
-			
+		
+		// direct or indirect relations of the candidates to the candidates of the other entities, scored jointly
+		String[] uris = new Disambiguator(index).resolve(candidates, types);
+		for (int i = 0; i < entities.size(); i++) {
+			entities.get(i).setURI(uris[i]);
 		}
-
-
+	}
+	
 	// ------- read available Properties via local Ontology
-	private QueryProperties readAvailableProperties(){
+	private static QueryProperties readAvailableProperties(){
 		QueryProperties queryprops = new QueryProperties();
 		
 		/*
@@ -534,119 +701,98 @@ public class JenaEngine implements QueryEngine {
 		return queryprops;
 	}
 	
-	private List<String[]> queryContextTriples(Model m) {
+	// ------- Relations between the entities: direct (e1 -> e2, both entities) or indirect (e1 -> e2 <-/-> other entity)
+	// via the edges of the entities in the triple index -> cost depends on the neighbourhood, not on the size of the cache
+	private List<String[]> queryContextTriples(List<NamedEntity> entities) {
 		List<String[]> result = new ArrayList<String[]>();
-//		System.out.println(m);
-		
-//		SELECT DISTINCT ?l_e1 ?l_p ?l_e2 WHERE {
-//			?e1 ?p ?e2.
-//			?e1 rdfs:label ?le1.
-//			?e2 rdfs:label ?le2.
-//			?p rdfs:label ?lp.
-//			FILTER ( 
-//			(?e1 = <http://dbpedia.org/resource/Walldorf> || ?e1 =  <http://dbpedia.org/resource/SAP_SE>) && 
-//			(?e2 = <http://dbpedia.org/resource/Walldorf> || ?e2 = <http://dbpedia.org/resource/SAP_SE>) &&
-//			LANGMATCHES(LANG(?le1), 'en') && LANGMATCHES(LANG(?le2), 'en') && LANGMATCHES(LANG(?lp), 'en') 
-//			)
-//			BIND (STR(?le1) as ?l_e1)
-//			BIND (STR(?le2) as ?l_e2)
-//			BIND (STR(?lp) as ?l_p)
-//			}
-		
-//		SELECT DISTINCT ?l_e1 ?l_p ?l_e2 WHERE {
-//			?e1 ?p ?e2.
-//			?o ?p2 ?e2.
-//			?e1 rdfs:label ?le1.
-//			?e2 rdfs:label ?le2.
-//			?p rdfs:label ?lp.
-//			FILTER ( 
-//			(?e1 = <http://dbpedia.org/resource/Walldorf> || ?e1 =  <http://dbpedia.org/resource/SAP_SE>) && ?e1 != ?o &&
-//			(?o = <http://dbpedia.org/resource/Walldorf> || ?o = <http://dbpedia.org/resource/SAP_SE>) &&
-//			LANGMATCHES(LANG(?le1), 'en') && LANGMATCHES(LANG(?le2), 'en') && LANGMATCHES(LANG(?lp), 'en') 
-//			)
-//			BIND (STR(?le1) as ?l_e1)
-//			BIND (STR(?le2) as ?l_e2)
-//			BIND (STR(?lp) as ?l_p)
-//			}
-		
-		//Add filter for URI 
-		String filter_e1 = "";
-		String filter_e2 = "";
-		String filter_o = ""; // "o"ther entity for indirect relation
-		for (NamedEntity e : entities) {			
-			if(filter_e1 != ""){
-				filter_e1 += " || "; 
-				filter_e2 += " || "; 
-				filter_o += " || ";
+		index.beginRead();
+		try {
+			Set<Integer> uris = new HashSet<Integer>();
+			for (NamedEntity e : entities) {
+				int id = e.getURI().isEmpty() ? TripleIndex.NONE : index.id(NodeFactory.createURI(e.getURI()));
+				if(id != TripleIndex.NONE){
+					uris.add(id);
+				}
 			}
-			filter_e1 += " ( ?e1 = <" + e.getURI() + "> )";
-			filter_e2 += " ( ?e2 = <" + e.getURI() + "> )";
-			filter_o += " ( ?o = <" + e.getURI() + "> )";
-		}
-		
-		String filterLang = " && LANGMATCHES(LANG(?le1), 'en') && LANGMATCHES(LANG(?le2), 'en') && LANGMATCHES(LANG(?lp), 'en')"; 
-		
-		String filter1 = " ( " + filter_e1 + " ) && ( " + filter_e2 + " ) "	+ filterLang;		
-		String filter2 = " ( " + filter_e1 + " ) && ( " + filter_o + " ) && ?e1 != ?o " + filterLang;
-		
-		String bind = " BIND (STR(?le1) as ?l_e1) BIND (STR(?le2) as ?l_e2) BIND (STR(?lp) as ?l_p)";
-		
-		
-		// Union part 1: direct relations
-		String part1 = "SELECT DISTINCT ?l_e1 ?l_p ?l_e2  WHERE {"
-				+ " ?e1 ?p ?e2."
-				+ " ?e1 rdfs:label ?le1."
-				+ " ?e2 rdfs:label ?le2."
-				+ " OPTIONAL {?p rdfs:label ?lp.}"
-				+ " FILTER ( " + filter1 + " ) "
-				+ bind
-				+ "}";
-		
-		// Union part 2: indirect relations
-		String part2 = "SELECT DISTINCT ?l_e1 ?l_p ?l_e2  WHERE {"
-				+ " ?e1 ?p ?e2."
-				+ " OPTIONAL { ?o ?p2 ?e2 }"
-				+ " OPTIONAL { ?e2 ?p3 ?o }"
-				+ " ?e1 rdfs:label ?le1."
-				+ " ?e2 rdfs:label ?le2."
-				+ " OPTIONAL { ?p rdfs:label ?lp.}"
-				+ " FILTER ( " + filter2 + " ) "
-				+ bind
-				+ "}";
-		
-		// Complete Query
-		String queryString = "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>"
-				+ " PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>"
-				+ " PREFIX " + PREFIX + " <http://webprotege.stanford.edu/>"
-				+ " SELECT DISTINCT ?l_e1 ?l_p ?l_e2 { { "
-				+ part1
-				+ " } UNION { " 
-				+ part2
-				+ " } } "
-				; 
-		//System.out.println(queryString);
-		Query query = QueryFactory.create(queryString); 
-		//System.out.println(query);
-		QueryExecution qe = QueryExecutionFactory.create(query, m); 
-		ResultSet results = qe.execSelect(); 
-
-		String[] triple;
-		while(results.hasNext()) {  
-			QuerySolution sol = results.next(); 
-			//System.out.println(sol);
-			if( sol.contains("l_e1") && sol.contains("l_e2") && sol.contains("l_p")){
-				triple = new String[3];
-				triple[0] = sol.get("l_e1").toString();				
-				triple[1] = sol.get("l_p").toString();
-				triple[2] = sol.get("l_e2").toString();				
-				result.add(triple);
+			
+			//neighbours (either direction) per entity
+			HashMap<Integer, Set<Integer>> neighbours = new HashMap<Integer, Set<Integer>>();
+			for (int e : uris) {
+				Set<Integer> set = new HashSet<Integer>();
+				for (int t = index.firstOut(e); t != TripleIndex.NONE; t = index.nextOut(t)) {
+					set.add(index.object(t));
+				}
+				for (int t = index.firstIn(e); t != TripleIndex.NONE; t = index.nextIn(t)) {
+					set.add(index.subject(t));
+				}
+				neighbours.put(e, set);
 			}
+			
+			//english labels per node, resolved once per request
+			HashMap<Integer, List<String>> labels = new HashMap<Integer, List<String>>();
+			Set<List<String>> found = new HashSet<List<String>>();
+			for (int e1 : uris) {
+				for (int t = index.firstOut(e1); t != TripleIndex.NONE; t = index.nextOut(t)) {
+					int e2 = index.object(t);
+					if(index.node(e2).isLiteral() || !(uris.contains(e2) || isLinked(e2, e1, neighbours))){
+						continue;
+					}
+					for (String le1 : getLabels(e1, labels)) {
+						for (String lp : getLabels(index.predicate(t), labels)) {
+							for (String le2 : getLabels(e2, labels)) {
+								if(found.add(Arrays.asList(le1, lp, le2))){
+									result.add(new String[]{le1, lp, le2});
+								}
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			index.endRead();
 		}
-		qe.close();
-		
 		return result;
 	}
 	
+	// ------- Node is linked (either direction) to one of the entities other than e1
+	private boolean isLinked(int n, int e1, HashMap<Integer, Set<Integer>> neighbours) {
+		for (int o : neighbours.keySet()) {
+			if(o != e1 && neighbours.get(o).contains(n)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private List<String> getLabels(int n, HashMap<Integer, List<String>> labels) {
+		List<String> list = labels.get(n);
+		if(list != null){
+			return list;
+		}
+		list = new ArrayList<String>();
+		int label = index.id(RDFS.label.asNode());
+		for (int t = index.firstOut(n); t != TripleIndex.NONE; t = index.nextOut(t)) {
+			Node l = index.node(index.object(t));
+			if(index.predicate(t) != label || !l.isLiteral()){
+				continue;
+			}
+			String lang = l.getLiteralLanguage().toLowerCase();
+			if(lang.equals("en") || lang.startsWith("en-")){
+				list.add(l.getLiteralLexicalForm());
+			}
+		}
+		Node node = index.node(n);
+		if(list.isEmpty() && node.isURI()){
+			//e.g. predicates: label known from an earlier source query
+			String l = LabelCache.getInstance().get(node.getURI(), "en");
+			if(l != null && !l.isEmpty()){
+				list.add(l);
+			}
+		}
+		labels.put(n, list);
+		return list;
+	}
+	
 	
 	// #################################### TEST SECTION #################################################
 	
@@ -728,13 +874,13 @@ public class JenaEngine implements QueryEngine {
 		// 2) Retrieve LOD information
 		System.out.println("Result LOD:");
 		JenaEngine je = new JenaEngine();
-		je.queryEntities(list, qp);
-		for (NamedEntity e : je.getResultEntities()){
+		QueryResult result = je.query(list, qp);
+		for (NamedEntity e : result.getEntities()){
 			System.out.println(e);			
 		}
 		
 		System.out.println("Triples of context:");
-		for (String[] a : je.getContextTriples()) {
+		for (String[] a : result.getContextTriples()) {
 			System.out.println(a[0] + " - " + a[1] + " - " + a[2]);
 		}
 	}
@@ -0,0 +1,178 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of rdfs:label values by URI and language, shared across all requests.
+ * Common predicates and classes (rdf:type, dbo:Person, ...) appear in nearly every source result
+ * -> their labels are queried only once. URIs without label are remembered as well (empty label),
+ * but only for the time to live of the cache -> a label added later at the source is found eventually.
+ * Bounded size with LRU eviction; new and evicted labels can be drained to persist them in the CacheStore.
+ */
+public class LabelCache {
+	private static LabelCache instance;
+
+	private LinkedHashMap<Key, String> labels;
+	private HashMap<Key, String> added;
+	private List<Key> evicted;
+	//time (ms) when the URI was found without label
+	private HashMap<Key, Long> missing;
+	private int maxSize;
+	private long ttl;
+	private boolean track;
+
+	/*
+	 * track: collect added/evicted labels to persist them (drainAdded/drainEvicted)
+	 */
+	private LabelCache(int maxSize, boolean track) {
+		//access order -> iteration starts with least recently used label
+		this.labels = new LinkedHashMap<Key, String>(1024, 0.75f, true);
+		this.added = new HashMap<Key, String>();
+		this.evicted = new ArrayList<Key>();
+		this.missing = new HashMap<Key, Long>();
+		this.maxSize = maxSize;
+		this.track = track;
+		this.ttl = EngineConfig.getCacheTTL();
+	}
+
+	public static synchronized LabelCache getInstance() {
+		if(instance == null){
+			instance = new LabelCache(EngineConfig.getLabelCacheSize(), EngineConfig.isLabelCachePersisted());
+		}
+		return instance;
+	}
+
+	/*
+	 * Label of the URI, "" if the URI is known to have no label, null if unknown
+	 */
+	public synchronized String get(String uri, String lang) {
+		Key k = new Key(uri, lang);
+		String label = labels.get(k);
+		if(label != null && label.isEmpty() && isExpired(k)){
+			remove(k);
+			return null;
+		}
+		return label;
+	}
+	
+	private boolean isExpired(Key k) {
+		Long since = missing.get(k);
+		return ttl > 0 && since != null && System.currentTimeMillis() - since > ttl;
+	}
+	
+	private void remove(Key k) {
+		labels.remove(k);
+		missing.remove(k);
+		if(track && added.remove(k) == null){
+			evicted.add(k);
+		}
+	}
+
+	/*
+	 * label: "" to remember that the URI has no label in this language
+	 */
+	public synchronized void put(String uri, String lang, String label) {
+		Key k = new Key(uri, lang);
+		labels.put(k, label);
+		if(label.isEmpty()){
+			missing.put(k, System.currentTimeMillis());
+		}else{
+			missing.remove(k);
+		}
+		if(track){
+			added.put(k, label);
+		}
+
+		//LRU eviction
+		Iterator<Key> it = labels.keySet().iterator();
+		while(maxSize > 0 && labels.size() > maxSize && it.hasNext()){
+			Key eldest = it.next();
+			it.remove();
+			missing.remove(eldest);
+			if(track && added.remove(eldest) == null){
+				evicted.add(eldest);
+			}
+		}
+	}
+
+	/*
+	 * Bulk load of persisted labels (not reported as added), the time to live of missing labels starts with the load
+	 */
+	public synchronized void load(Map<Key, String> persisted) {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Key, String> e : persisted.entrySet()) {
+			if(maxSize > 0 && labels.size() >= maxSize){
+				if(track){
+					evicted.add(e.getKey());
+				}
+			}else{
+				labels.put(e.getKey(), e.getValue());
+				if(e.getValue().isEmpty()){
+					missing.put(e.getKey(), now);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Labels added since the last call
+	 */
+	public synchronized Map<Key, String> drainAdded() {
+		Map<Key, String> result = added;
+		added = new HashMap<Key, String>();
+		return result;
+	}
+
+	/*
+	 * Labels evicted since the last call
+	 */
+	public synchronized List<Key> drainEvicted() {
+		List<Key> result = evicted;
+		evicted = new ArrayList<Key>();
+		return result;
+	}
+
+	public synchronized int size() {
+		return labels.size();
+	}
+
+
+	//######################### Key ##########################################
+
+	public static class Key {
+		private String uri;
+		private String lang;
+
+		public Key(String uri, String lang) {
+			this.uri = uri;
+			this.lang = lang;
+		}
+
+		public String getURI() {
+			return uri;
+		}
+
+		public String getLang() {
+			return lang;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(o == null || o.getClass() != Key.class){
+				return false;
+			}
+			Key k = (Key) o;
+			return k.uri.equals(uri) && k.lang.equals(lang);
+		}
+
+		@Override
+		public int hashCode() {
+			return uri.hashCode() * 31 + lang.hashCode();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import NEREngine.NamedEntity;
+
+/**
+ * Local full-text index over the cached rdfs:label values for the candidate lookup of entities.
+ * Inverted index token -> URIs (sorted -> prefix lookup for abbreviations like "H.")
+ * plus a trigram index over the tokens for fuzzy lookup, if a token is not known at all.
+ * Candidates are verified against the label pattern of the entity (same semantic as the regex
+ * used before) -> entity resolution is a few index probes instead of a regex scan over all labels.
+ */
+public class LabelIndex {
+	private static final int GRAM = 3;
+	private static final double MIN_SIMILARITY = 0.6;
+
+	private TreeMap<String, Set<String>> tokens;
+	private HashMap<String, Set<String>> grams;
+	private HashMap<String, Set<String>> labels;
+
+	public LabelIndex() {
+		tokens = new TreeMap<String, Set<String>>();
+		grams = new HashMap<String, Set<String>>();
+		labels = new HashMap<String, Set<String>>();
+	}
+
+	public synchronized void add(String uri, String label) {
+		Set<String> l = labels.get(uri);
+		if(l == null){
+			l = new HashSet<String>();
+			labels.put(uri, l);
+		}
+		if(!l.add(label)){
+			return;
+		}
+		for (String t : tokenize(label)) {
+			Set<String> uris = tokens.get(t);
+			if(uris == null){
+				uris = new HashSet<String>();
+				tokens.put(t, uris);
+				for (String g : grams(t)) {
+					Set<String> ts = grams.get(g);
+					if(ts == null){
+						ts = new HashSet<String>();
+						grams.put(g, ts);
+					}
+					ts.add(t);
+				}
+			}
+			uris.add(uri);
+		}
+	}
+
+	public synchronized void remove(String uri) {
+		Set<String> l = labels.remove(uri);
+		if(l == null){
+			return;
+		}
+		for (String label : l) {
+			for (String t : tokenize(label)) {
+				Set<String> uris = tokens.get(t);
+				if(uris != null){
+					uris.remove(uri);
+					if(uris.isEmpty()){
+						tokens.remove(t);
+						for (String g : grams(t)) {
+							Set<String> ts = grams.get(g);
+							if(ts != null){
+								ts.remove(t);
+								if(ts.isEmpty()){
+									grams.remove(g);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return labels.size();
+	}
+
+	/*
+	 * Candidate URIs with a label matching the name of the entity
+	 */
+	public synchronized Set<String> lookup(NamedEntity e) {
+		//abbreviations ("H.") -> prefix lookup, all other parts -> token lookup
+		List<String> full = new ArrayList<String>();
+		List<String> prefixes = new ArrayList<String>();
+		for (String part : e.getName().split("\\s+")) {
+			(part.endsWith(".") ? prefixes : full).addAll(tokenize(part));
+		}
+
+		//most selective first: intersect postings of full tokens, then filter by prefixes
+		Set<String> candidates = null;
+		for (String t : full) {
+			Set<String> uris = lookupToken(t);
+			candidates = candidates == null ? uris : intersect(candidates, uris);
+			if(candidates.isEmpty()){
+				return candidates;
+			}
+		}
+		for (String t : prefixes) {
+			if(candidates == null){
+				candidates = lookupPrefix(t);
+			}else{
+				Set<String> filtered = new HashSet<String>();
+				for (String uri : candidates) {
+					if(hasTokenWithPrefix(uri, t)){
+						filtered.add(uri);
+					}
+				}
+				candidates = filtered;
+			}
+		}
+		if(candidates == null){
+			return new HashSet<String>();
+		}
+
+		//verify candidates with label pattern of the entity (regex only on the few candidates)
+		Pattern p = e.getNamePattern();
+		Set<String> verified = new LinkedHashSet<String>();
+		for (String uri : candidates) {
+			for (String label : labels.get(uri)) {
+				if(p.matcher(label).find()){
+					verified.add(uri);
+					break;
+				}
+			}
+		}
+		return verified;
+	}
+
+	private Set<String> lookupToken(String t) {
+		Set<String> uris = tokens.get(t);
+		if(uris != null){
+			return uris;
+		}
+		//unknown token -> similar tokens via trigrams
+		Set<String> result = new HashSet<String>();
+		for (String similar : similarTokens(t)) {
+			result.addAll(tokens.get(similar));
+		}
+		return result;
+	}
+
+	private Set<String> lookupPrefix(String t) {
+		Set<String> result = new HashSet<String>();
+		for (Set<String> uris : tokens.subMap(t, t + Character.MAX_VALUE).values()) {
+			result.addAll(uris);
+		}
+		return result;
+	}
+
+	private boolean hasTokenWithPrefix(String uri, String prefix) {
+		for (String label : labels.get(uri)) {
+			for (String t : tokenize(label)) {
+				if(t.startsWith(prefix)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private List<String> similarTokens(String t) {
+		Set<String> g = grams(t);
+		Map<String, Integer> shared = new HashMap<String, Integer>();
+		for (String gram : g) {
+			Set<String> ts = grams.get(gram);
+			if(ts != null){
+				for (String token : ts) {
+					Integer c = shared.get(token);
+					shared.put(token, c == null ? 1 : c + 1);
+				}
+			}
+		}
+		//Dice coefficient of the trigram sets
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+			double sim = 2.0 * entry.getValue() / (g.size() + grams(entry.getKey()).size());
+			if(sim >= MIN_SIMILARITY){
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	private static Set<String> intersect(Set<String> a, Set<String> b) {
+		Set<String> small = a.size() <= b.size() ? a : b;
+		Set<String> large = small == a ? b : a;
+		Set<String> result = new HashSet<String>();
+		for (String s : small) {
+			if(large.contains(s)){
+				result.add(s);
+			}
+		}
+		return result;
+	}
+
+	// ------- Lower case tokens of a label (letters and digits only)
+	static Collection<String> tokenize(String label) {
+		List<String> result = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < label.length(); i++) {
+			char c = label.charAt(i);
+			if(Character.isLetterOrDigit(c)){
+				sb.append(Character.toLowerCase(c));
+			}else if(sb.length() > 0){
+				result.add(sb.toString());
+				sb.setLength(0);
+			}
+		}
+		if(sb.length() > 0){
+			result.add(sb.toString());
+		}
+		return result;
+	}
+
+	// ------- Trigrams of a token, padded -> short tokens have grams as well
+	private static Set<String> grams(String token) {
+		String padded = " " + token + " ";
+		Set<String> result = new HashSet<String>();
+		for (int i = 0; i + GRAM <= padded.length(); i++) {
+			result.add(padded.substring(i, i + GRAM));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,162 @@
+package QueryEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * Rewrite table compiled from the mapping axioms of the local ontology
+ * (subPropertyOf, equivalentProperty, inverseProperty, subClassOf, equivalentClass).
+ * Triples of the sources are rewritten to the own vocabulary on ingest (forward chaining with a lookup per triple)
+ * -> local queries run on a plain model without reasoner.
+ */
+public class OntologyMapping {
+	private HashMap<String, Set<String>> properties;
+	private HashMap<String, Set<String>> inverses;
+	private HashMap<String, Set<String>> classes;
+
+	public OntologyMapping(Model ontology) {
+		//direct edges of the axioms (equivalence -> both directions)
+		HashMap<String, Set<String>> propEdges = new HashMap<String, Set<String>>();
+		HashMap<String, Set<String>> classEdges = new HashMap<String, Set<String>>();
+		HashMap<String, Set<String>> invEdges = new HashMap<String, Set<String>>();
+		addEdges(ontology, RDFS.subPropertyOf, propEdges, false);
+		addEdges(ontology, OWL.equivalentProperty, propEdges, true);
+		addEdges(ontology, OWL.inverseOf, invEdges, true);
+		addEdges(ontology, ontology.createProperty(OWL.getURI() + "inverseProperty"), invEdges, true);
+		addEdges(ontology, RDFS.subClassOf, classEdges, false);
+		addEdges(ontology, OWL.equivalentClass, classEdges, true);
+
+		//transitive closure -> one lookup per triple on ingest
+		properties = closure(propEdges);
+		classes = closure(classEdges);
+
+		//inverse: p(s,o) -> q(o,s) for all q equivalent/super to an inverse of p or of one of its super properties
+		inverses = new HashMap<String, Set<String>>();
+		Set<String> all = new HashSet<String>(properties.keySet());
+		all.addAll(invEdges.keySet());
+		for (String p : all) {
+			Set<String> targets = new HashSet<String>();
+			for (String sup : withSelf(properties, p)) {
+				for (String inv : get(invEdges, sup)) {
+					targets.addAll(withSelf(properties, inv));
+				}
+			}
+			if(!targets.isEmpty()){
+				inverses.put(p, targets);
+			}
+		}
+		System.out.println("Compiled ontology mapping: " + properties.size() + " properties, " + inverses.size() + " inverse properties, " + classes.size() + " classes");
+	}
+
+	/*
+	 * Mapped triples of the model which are not part of it already
+	 */
+	public Model materialize(Model m) {
+		Model result = ModelFactory.createDefaultModel();
+		StmtIterator it = m.listStatements();
+		while (it.hasNext()) {
+			Statement st = it.next();
+			Resource s = st.getSubject();
+			RDFNode o = st.getObject();
+			String p = st.getPredicate().getURI();
+			if(st.getPredicate().equals(RDF.type)){
+				if(o.isURIResource()){
+					for (String c : get(classes, o.asResource().getURI())) {
+						add(m, result, s, RDF.type, result.createResource(c));
+					}
+				}
+				continue;
+			}
+			for (String target : get(properties, p)) {
+				add(m, result, s, result.createProperty(target), o);
+			}
+			if(o.isResource()){
+				for (String target : get(inverses, p)) {
+					add(m, result, o.asResource(), result.createProperty(target), s);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void add(Model m, Model result, Resource s, Property p, RDFNode o) {
+		if(!m.contains(s, p, o)){
+			result.add(s, p, o);
+		}
+	}
+
+	private static void addEdges(Model ontology, Property axiom, HashMap<String, Set<String>> edges, boolean symmetric) {
+		StmtIterator it = ontology.listStatements(null, axiom, (RDFNode) null);
+		while (it.hasNext()) {
+			Statement st = it.next();
+			if(!st.getSubject().isURIResource() || !st.getObject().isURIResource()){
+				continue;
+			}
+			String from = st.getSubject().getURI();
+			String to = st.getObject().asResource().getURI();
+			//top property would duplicate every relation (owl:Thing is kept -> common type of all mapped entities)
+			if(to.equals(OWL.getURI() + "topObjectProperty")){
+				continue;
+			}
+			edge(edges, from, to);
+			if(symmetric){
+				edge(edges, to, from);
+			}
+		}
+	}
+
+	private static void edge(HashMap<String, Set<String>> edges, String from, String to) {
+		Set<String> set = edges.get(from);
+		if(set == null){
+			set = new HashSet<String>();
+			edges.put(from, set);
+		}
+		set.add(to);
+	}
+
+	// ------- All reachable terms per term (without the term itself)
+	private static HashMap<String, Set<String>> closure(HashMap<String, Set<String>> edges) {
+		HashMap<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (String start : edges.keySet()) {
+			Set<String> reached = new HashSet<String>();
+			Deque<String> todo = new ArrayDeque<String>(edges.get(start));
+			while(!todo.isEmpty()){
+				String next = todo.poll();
+				if(!next.equals(start) && reached.add(next)){
+					todo.addAll(get(edges, next));
+				}
+			}
+			if(!reached.isEmpty()){
+				result.put(start, reached);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> withSelf(HashMap<String, Set<String>> map, String term) {
+		List<String> result = new ArrayList<String>(get(map, term));
+		result.add(term);
+		return result;
+	}
+
+	private static Set<String> get(HashMap<String, Set<String>> map, String term) {
+		Set<String> set = map.get(term);
+		return set == null ? new HashSet<String>() : set;
+	}
+}
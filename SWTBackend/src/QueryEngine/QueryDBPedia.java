@@ -4,7 +4,6 @@ import java.util.List;
 
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
-import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QueryParseException;
 import org.apache.jena.rdf.model.Model;
@@ -79,7 +78,7 @@ public class QueryDBPedia {
 			return;
 		}
 		
-		QueryExecution qe = QueryExecutionFactory.sparqlService(endpoint, q);
+		QueryExecution qe = SparqlHttpClient.sparqlService(endpoint, q);
 		
 		try {
 			model = qe.execDescribe();
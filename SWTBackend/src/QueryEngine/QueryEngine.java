@@ -11,9 +11,17 @@ public interface QueryEngine {
 	public Properties getAvailableProperties();
 	public List<String> getAvailableProperties(EntityType type);
 		
+	public QueryResult query(List<NamedEntity> entities);
+	public QueryResult query(List<NamedEntity> entities, QueryProperties props);
+	
+	//Result of the last queryEntities call of this instance (shared by all threads) -> use query(...) instead
+	@Deprecated
 	public void queryEntities(List<NamedEntity> entities);
+	@Deprecated
 	public void queryEntities(List<NamedEntity> entities, QueryProperties props);
 	
+	@Deprecated
 	public List<NamedEntity> getResultEntities();
+	@Deprecated
 	public List<String[]> getContextTriples();
 }
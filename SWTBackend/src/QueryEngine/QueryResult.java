@@ -0,0 +1,45 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import NEREngine.NamedEntity;
+
+/**
+ * Result of one query of entities: resolved entities with their property values and the triples of the context.
+ * Immutable -> can be handed over between threads; getters return copies.
+ */
+public final class QueryResult {
+	private final List<NamedEntity> entities;
+	private final List<String[]> contextTriples;
+
+	public QueryResult(List<NamedEntity> entities, List<String[]> contextTriples) {
+		List<NamedEntity> e = new ArrayList<NamedEntity>();
+		for (NamedEntity ne : entities) {
+			e.add(new NamedEntity(ne));
+		}
+		List<String[]> t = new ArrayList<String[]>();
+		for (String[] triple : contextTriples) {
+			t.add(triple.clone());
+		}
+		this.entities = Collections.unmodifiableList(e);
+		this.contextTriples = Collections.unmodifiableList(t);
+	}
+
+	public List<NamedEntity> getEntities() {
+		List<NamedEntity> copy = new ArrayList<NamedEntity>();
+		for (NamedEntity ne : entities) {
+			copy.add(new NamedEntity(ne));
+		}
+		return copy;
+	}
+
+	public List<String[]> getContextTriples() {
+		List<String[]> copy = new ArrayList<String[]>();
+		for (String[] triple : contextTriples) {
+			copy.add(triple.clone());
+		}
+		return copy;
+	}
+}
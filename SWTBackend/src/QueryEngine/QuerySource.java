@@ -1,21 +1,35 @@
 package QueryEngine;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
-import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QueryParseException;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.vocabulary.RDFS;
 
 import NEREngine.NamedEntity;
 import NEREngine.NamedEntity.EntityType;
@@ -26,48 +40,89 @@ public class QuerySource {
 	}
 
 	private Model model;
-	private String type;
+	private Node type;
 	private String endpoint;
 	private Source source;
+	private static final String LANG = "en";
+	private Set<QueryExecution> running = ConcurrentHashMap.newKeySet();
+	private volatile boolean aborted;
+	private volatile boolean failed;
 
 	public Model getModel(){
 		return model;
 	}
 
-	public QuerySource(Source s, EntityType et, List<NamedEntity> entities){ 
+	public QuerySource(Source s, EntityType et){ 
 		this.source = s;
 		determineSourceParameters(s,et);
+	}
+	
+	public Model query(List<NamedEntity> entities){
 		querySource(entities);
+		return aborted ? null : model;
+	}
+	
+	/*
+	 * A remote entity query failed (e.g. rejected or aborted by the endpoint) -> result is incomplete
+	 */
+	public boolean isFailed(){
+		return failed;
+	}
+	
+	/*
+	 * Abort the running query (e.g. after timeout), no further remote calls afterwards
+	 */
+	public void abort(){
+		aborted = true;
+		for (QueryExecution qe : running) {
+			qe.abort();
+		}
+	}
+	
+	private QueryExecution createRemoteExecution(Query q){
+		//pooled connections of the shared client, connect/read timeouts are set on the client
+		QueryExecution qe = SparqlHttpClient.sparqlService(endpoint, q);
+		running.add(qe);
+		return qe;
+	}
+	
+	public static String getEndpoint(Source s) {
+		switch (s){
+		case DBPedia:
+			return "http://dbpedia.org/sparql";
+		case LinkedMDB:
+			return "http://linkedmdb.org/sparql";
+		}
+		return null;
 	}
 	
 	private void determineSourceParameters(Source s, EntityType et) {
 		// rdf:type and enpoint definition
+		endpoint = getEndpoint(s);
 		switch (s){
 		case DBPedia:
-			endpoint = "http://dbpedia.org/sparql";
 			switch (et) {
 			case ORGANIZATION:
-				type = "<http://dbpedia.org/ontology/Organisation>";
+				type = NodeFactory.createURI("http://dbpedia.org/ontology/Organisation");
 				break;
 			case PERSON:
-				type = "<http://dbpedia.org/ontology/Person>";
+				type = NodeFactory.createURI("http://dbpedia.org/ontology/Person");
 				break;
 			case LOCATION:
-				type = "<http://dbpedia.org/ontology/Location>";
+				type = NodeFactory.createURI("http://dbpedia.org/ontology/Location");
 				break;
 			}
 			break;
 		case LinkedMDB:
-			endpoint = "http://linkedmdb.org/sparql";
 			switch (et) {
 			case ORGANIZATION:
-				type = "<http://data.linkedmdb.org/resource/movie/film_distributor>";
+				type = NodeFactory.createURI("http://data.linkedmdb.org/resource/movie/film_distributor");
 				break;
 			case PERSON:
-				type = "<http://xmlns.com/foaf/0.1/Person>";
+				type = NodeFactory.createURI("http://xmlns.com/foaf/0.1/Person");
 				break;
 			case LOCATION:
-				type = "<http://data.linkedmdb.org/resource/movie/film_location>";
+				type = NodeFactory.createURI("http://data.linkedmdb.org/resource/movie/film_location");
 				break;
 			}
 			break;
@@ -76,127 +131,368 @@ public class QuerySource {
 
 	private void querySource(List<NamedEntity> entities) {
 		Long start = System.nanoTime();
+		//label packages are started while the descriptions are streamed in -> merged into the result model concurrently
+		LabelLoader labels = new LabelLoader();
+		model = ModelFactory.createDefaultModel();
+		boolean described = false;
+		Description exactDescription = new Description();
 		
-		// ---- Definitions ---
-		String queryString = "";
-			
-
-		// 2) DESCRIBE Clause
-		queryString += "DESCRIBE ?e";
-		// 3) Where Clause	
-		queryString += " WHERE { "
-				+ "?e <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> " + type + ". "
-				+ "?e <http://www.w3.org/2000/01/rdf-schema#label> ?l."
-			//	+ "?e <http://dbpedia.org/ontology/abstract> ?a."
-			//	+ "?e <http://www.w3.org/2000/01/rdf-schema#comment> ?c."
-				;
-		// 3c) Filter		
-		queryString += " FILTER( LANGMATCHES(LANG(?l), 'en')"
-			//	+ " && LANGMATCHES(LANG(?a), 'en')"
-			//	+ " && LANGMATCHES(LANG(?c), 'en')"
-				;
-		// 3d) dynamic filter part
-		String filter = "";
+		// 1) exact label match via VALUES (no scan of labels at the endpoint), abbreviations ("H. Plattner") can't match exactly
+		List<NamedEntity> exact = new ArrayList<NamedEntity>();
 		for (NamedEntity e : entities) {
-			if(filter != ""){
-				filter += " || ";
+			if(!e.getName().contains(".")){
+				exact.add(e);
 			}
-			filter += "regex(?l,'" + e.getRegexName() + "')";
-		}				
-		queryString += " && ( " + filter + " ) ) }"; 
-	
-		//System.out.println(queryString);
+		}
+		if(!exact.isEmpty()){
+			List<Node> names = new ArrayList<Node>();
+			for (NamedEntity e : exact) {
+				names.add(NodeFactory.createLiteral(e.getName(), LANG));
+			}
+			Query q = QueryTemplate.of("DESCRIBE ?e WHERE {"
+					+ " VALUES ?type { } VALUES ?l { }"
+					+ " ?e <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> ?type. "
+					+ " ?e <http://www.w3.org/2000/01/rdf-schema#label> ?l."
+					+ " }").bind(new QueryTemplate.Parameters().value("type", type).values("l", names));
+			described = describe(q, exactDescription, labels);
+		}
+		if(aborted){
+			return;
+		}
+		
+		// 2) remaining entities: text search of the endpoint (if supported) or regex as last resort
+		List<NamedEntity> remaining = new ArrayList<NamedEntity>();
+		for (NamedEntity e : entities) {
+			if(!exactDescription.names.contains(e.getName())){
+				remaining.add(e);
+			}
+		}
+		if(!remaining.isEmpty()){
+			Query q;
+			if(EngineConfig.isTextSearchSupported(source)){
+				q = textSearchQuery(remaining);
+			}else{
+				List<Node> patterns = new ArrayList<Node>();
+				for (NamedEntity e : remaining) {
+					patterns.add(NodeFactory.createLiteral(e.getNamePattern().pattern()));
+				}
+				q = QueryTemplate.of("DESCRIBE ?e WHERE {"
+						+ " VALUES ?type { } VALUES ?pattern { }"
+						+ " ?e <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> ?type. "
+						+ " ?e <http://www.w3.org/2000/01/rdf-schema#label> ?l."
+						+ " FILTER( LANGMATCHES(LANG(?l), '" + LANG + "') && regex(?l, ?pattern) )"
+						+ " }").bind(new QueryTemplate.Parameters().value("type", type).values("pattern", patterns));
+			}
+			described = describe(q, new Description(), labels) || described;
+		}
+		if(!described || aborted){
+			//nothing to label -> just wait for the packages in flight
+			labels.finish(false);
+			model = null;
+			return;
+		}
+		System.out.println("Queried "+ source +" for: " + entities + ", size: " + size() + "; exact: " + (entities.size() - remaining.size()) + "; time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");
 		
-		// ---- Execute Query --------
-		Query q = null;		
+		//---------------- Labels for subjects, predicates and objects: rest of the packages ------------------
+		labels.finish(true);
+	}
+	
+	private long size() {
+		synchronized (model) {
+			return model.size();
+		}
+	}
+	
+	// ------- Execute DESCRIBE at the source: triples are parsed and added to the result as they arrive (label packages are merged concurrently),
+	// URIs are handed over to the label loader on the fly. Failed -> triples and labels of the description are removed again
+	private boolean describe(Query q, Description d, LabelLoader labels) {
+		//System.out.println(q);
+		if(aborted || q == null){
+			return false;
+		}
+		QueryExecution qe = createRemoteExecution(q);
+		try {
+			Iterator<Triple> it = qe.execDescribeTriples();
+			while (it.hasNext() && !aborted) {
+				Triple t = it.next();
+				synchronized (model) {
+					d.add(t);
+				}
+				d.collectName(t);
+				labels.collect(t, d);
+			}
+			return true;
+		} catch (Exception e2) {
+			System.out.println("Query for "+ source +" failed: " + e2.getMessage());
+			System.out.println(q);
+			if(!aborted){
+				failed = true;
+			}
+			labels.discard(d);
+			d.discard();
+			return false;
+		} finally {
+			running.remove(qe);
+			qe.close() ;
+		}
+	}
+	
+	// ------- Text search of the endpoint (Virtuoso: bif:contains) on the full words of the names -> narrows the labels for the regex
+	// bif:contains needs a constant search expression -> one UNION part per entity (values as escaped literals)
+	private Query textSearchQuery(List<NamedEntity> entities) {
+		String where = "";
+		for (NamedEntity e : entities) {
+			if(!where.isEmpty()){
+				where += " UNION ";
+			}
+			where += "{ ?e <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> " + FmtUtils.stringForNode(type) + ". "
+					+ " ?e <http://www.w3.org/2000/01/rdf-schema#label> ?l."
+					+ textSearch(e)
+					+ " FILTER( LANGMATCHES(LANG(?l), '" + LANG + "') && regex(?l, " + FmtUtils.stringForNode(NodeFactory.createLiteral(e.getNamePattern().pattern())) + ") ) }";
+		}
+		String queryString = "DESCRIBE ?e WHERE { " + where + " }";
 		try {
-			q = QueryFactory.create(queryString);
+			return QueryFactory.create(queryString);
 		} catch (QueryParseException e) {
 			System.out.println(source + " query generation failed for: " + entities + " - query string:");
 			System.out.println(queryString);
 			System.out.println(e.getMessage());
-			return;
+			return null;
 		}
-		//System.out.println(q);
+	}
+	
+	private String textSearch(NamedEntity e) {
+		String words = "";
+		for (String part : e.getName().split("\\s+")) {
+			if(part.endsWith(".")){
+				continue;
+			}
+			for (String t : LabelIndex.tokenize(part)) {
+				if(!words.isEmpty()){
+					words += " AND ";
+				}
+				words += "\"" + t + "\"";
+			}
+		}
+		return words.isEmpty() ? "" : " ?l <bif:contains> " + FmtUtils.stringForNode(NodeFactory.createLiteral(words)) + ".";
+	}
+	
+	// ------- Query english labels of one package of URIs -> returned as own model (merged by caller)
+	private Model queryLabels(List<String> uris, int count) {
+		Model labels = ModelFactory.createDefaultModel();
+		if(aborted){
+			return labels;
+		}
+		Query q = QueryTemplate.of("SELECT ?s ?l WHERE { "
+				+ " VALUES ?s { }"
+				+ " ?s <http://www.w3.org/2000/01/rdf-schema#label> ?o "
+				+ " FILTER ( LANGMATCHES(LANG(?o), '" + LANG + "') )"
+				+ " BIND (STR(?o) as ?l)}").bind(new QueryTemplate.Parameters().values("s", QueryTemplate.uris(uris)));
 		
-		QueryExecution qe = QueryExecutionFactory.sparqlService(endpoint, q);
+		QueryExecution qe = createRemoteExecution(q);
 		try {
-			model = qe.execDescribe();
-			System.out.println("Queried "+ source +" for: " + entities + ", size: " + model.size() + "; time: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start) + "ms");
+			ResultSet results = qe.execSelect();
+			while(results.hasNext()) {
+				QuerySolution sol = results.next();
+				//System.out.println(sol.get("s").toString() + " - " + sol.get("p").toString() + " - " + sol.get("o").toString());
+				Literal l = ResourceFactory.createLangLiteral(sol.get("l").toString(), LANG);
+				Resource r = ResourceFactory.createResource(sol.get("s").toString());
+				labels.addLiteral(r, RDFS.label, l);					
+			}			
+			//remember labels (and URIs without label) for further requests
+			LabelCache labelCache = LabelCache.getInstance();
+			for (String uri : uris) {
+				Statement st = labels.getProperty(labels.createResource(uri), RDFS.label);
+				labelCache.put(uri, LANG, st == null ? "" : st.getString());
+			}
 		} catch (Exception e2) {
-			System.out.println("Query for "+ source +" failed: " + e2.getMessage());
+			System.out.println("Query for labels from "+ source +" failed; count: " + count + e2.getMessage());
 			System.out.println(q);
 		} finally {
+			running.remove(qe);
 			qe.close() ;
 		}
+		return labels;
+	}
+	
+	
+	//######################### Description ##########################################
+	
+	/*
+	 * Triples of one DESCRIBE and of the labels of its URIs, written directly to the result.
+	 * Just the triples new to the result are remembered (references, no copy of the description) -> removed if the DESCRIBE fails.
+	 */
+	private class Description {
+		private List<Triple> added = new ArrayList<Triple>();
+		//english labels of the description (entities found by the exact match)
+		private Set<String> names = new HashSet<String>();
+		private boolean failed;
 		
-		//---------------- Query labels for subjects, predicates and objects ------------------
-		List<String> subjects = new ArrayList<String>();
-		ResultSet results = QueryExecutionFactory.create("SELECT DISTINCT ?uri WHERE { "
-				+ " "
-				+ " { ?s ?p ?uri } UNION "
-				+ " {?uri ?p1 ?o }"
-				+ " FILTER (isURI(?uri)) "
-				+ "}", model).execSelect();
-		while(results.hasNext()) {  
-			QuerySolution sol = results.next();
-			subjects.add(sol.getResource("uri").getURI());
-//			System.out.println(sol.get("uri").toString());
-		}
-		
-		results = QueryExecutionFactory.create("SELECT DISTINCT ?pred WHERE { ?s ?pred ?o }", model).execSelect();
-		while(results.hasNext()) {  
-			QuerySolution sol = results.next();
-			subjects.add(sol.get("pred").toString());
-			//System.out.println(sol.get("pred").toString());
-		}
-		
-		int from = 0;
-		int to = 0;
-		while(from < subjects.size()-1){
-			to += 100; //package size
-			if (to >= subjects.size())
-				to = subjects.size() -1;
-			
-			
+		// ------- Caller holds the lock of the model
+		void add(Triple t) {
+			Graph g = model.getGraph();
+			if(!failed && !g.contains(t)){
+				g.add(t);
+				added.add(t);
+			}
+		}
 		
-			String f = " ?s = <" + String.join("> || ?s = <", subjects.subList(from, to)) + ">";
-			//System.out.println(f);
-			
-			q = QueryFactory.create("SELECT ?s ?p ?l WHERE { "
-					+ " ?s ?p ?o "
-					+ " FILTER ( ( " + f + " ) && ?p = <http://www.w3.org/2000/01/rdf-schema#label> && LANGMATCHES(LANG(?o), 'en')"
-					+ " ) BIND (STR(?o) as ?l)}");
-			
-			qe = QueryExecutionFactory.sparqlService(endpoint, q);
+		void collectName(Triple t) {
+			Node o = t.getObject();
+			if(t.getPredicate().equals(RDFS.label.asNode()) && o.isLiteral() && LANG.equalsIgnoreCase(o.getLiteralLanguage())){
+				names.add(o.getLiteralLexicalForm());
+			}
+		}
+		
+		void discard() {
+			synchronized (model) {
+				failed = true;
+				Graph g = model.getGraph();
+				for (Triple t : added) {
+					g.delete(t);
+				}
+				added.clear();
+			}
+			names.clear();
+		}
+	}
+	
+	
+	//######################### Label loader ##########################################
+	
+	/*
+	 * Collects the URIs of the streamed descriptions and starts a label package as soon as it is full
+	 * (max. fan-out per source query). Subjects are deferred to the end: their labels are usually part of their description.
+	 * Labels belong to the description that referenced the URI first. Used by the thread of the source query only
+	 * (except for the merge of finished packages).
+	 */
+	private class LabelLoader {
+		private int batchSize = Math.max(1, EngineConfig.getLabelBatchSize());
+		private Semaphore slots;
+		//URI -> description that referenced it first
+		private ConcurrentHashMap<String, Description> seen = new ConcurrentHashMap<String, Description>();
+		private Set<String> subjects = new LinkedHashSet<String>();
+		private List<String> pending = new ArrayList<String>();
+		private List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		private int known;
+		private int queried;
+		
+		LabelLoader() {
+			int fanOut = EngineConfig.getLabelFanOut();
+			slots = new Semaphore(fanOut > 0 ? fanOut : Integer.MAX_VALUE);
+		}
+		
+		// ------- URIs of one streamed triple of the description
+		void collect(Triple t, Description d) {
+			if(t.getSubject().isURI()){
+				seen.putIfAbsent(t.getSubject().getURI(), d);
+				subjects.add(t.getSubject().getURI());
+			}
+			add(t.getPredicate(), d);
+			add(t.getObject(), d);
+			if(pending.size() >= batchSize){
+				dispatch();
+			}
+		}
+		
+		// ------- DESCRIBE failed: its URIs are not queried (labels still in flight are dropped on merge), free for later descriptions
+		void discard(Description d) {
+			seen.values().removeIf(owner -> owner == d);
+			subjects.removeIf(uri -> !seen.containsKey(uri));
+			pending.removeIf(uri -> !seen.containsKey(uri));
+		}
+		
+		// ------- Remaining URIs (subjects of the result without label, if anything was described) and wait for all packages
+		void finish(boolean described) {
+			if(described){
+				for (String uri : subjects) {
+					pending.add(uri);
+				}
+				dispatch();
+			}
+			subjects.clear();
+			pending.clear();
 			try {
-				results = qe.execSelect();
-				while(results.hasNext()) {
-					QuerySolution sol = results.next();
-					//System.out.println(sol.get("s").toString() + " - " + sol.get("p").toString() + " - " + sol.get("o").toString());
-					Literal l = ResourceFactory.createLangLiteral(sol.get("l").toString(), "en");
-					Resource r = ResourceFactory.createResource(sol.get("s").toString());
-					Property p = ResourceFactory.createProperty(sol.get("p").toString());
-					model.addLiteral(r, p, l);					
-				}			
-//				model.add(qe.execDescribe());				
-			} catch (Exception e2) {
-				System.out.println("Query for labels from "+ source +" failed; count: " + subjects.size() + e2.getMessage());
-				System.out.println(q);
-			} finally {
-				qe.close() ;
+				CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+			} catch (CompletionException e) {
+				System.out.println("Query for labels from "+ source +" interrupted: " + e.getMessage());
 			}
+			if(known > 0){
+				System.out.println("Labels known for " + known + " of " + (known + queried) + " URIs from " + source);
+			}
+			System.out.println("Queried labels from "+ source +", model size: " + size() + "; count: " + queried);
+		}
+		
+		private void add(Node n, Description d) {
+			if(n.isURI() && seen.putIfAbsent(n.getURI(), d) == null){
+				pending.add(n.getURI());
+			}
+		}
+		
+		// ------- Start packages for the pending URIs without label in the result and the label cache (cached labels are added to the result)
+		private void dispatch() {
+			LabelCache labelCache = LabelCache.getInstance();
+			List<String> unlabeled = new ArrayList<String>();
+			for (String uri : pending) {
+				Resource r = ResourceFactory.createResource(uri);
+				if(hasLabel(r)){
+					continue;
+				}
+				String label = labelCache.get(uri, LANG);
+				if(label == null){
+					unlabeled.add(uri);
+				}else{
+					known++;
+					if(!label.isEmpty()){
+						merge(Triple.create(r.asNode(), RDFS.label.asNode(), NodeFactory.createLiteral(label, LANG)));
+					}
+				}
+			}
+			pending.clear();
 			
-			from = to;
-			
+			//packages of URIs per label query, merged into the result as soon as they are finished
+			for (int from = 0; from < unlabeled.size(); from += batchSize) {
+				List<String> batch = unlabeled.subList(from, Math.min(from + batchSize, unlabeled.size()));
+				try {
+					slots.acquire();
+				} catch (InterruptedException e) {
+					System.out.println("Query for labels from "+ source +" interrupted: " + e.getMessage());
+					return;
+				}
+				if(aborted){
+					slots.release();
+					return;
+				}
+				queried += batch.size();
+				futures.add(CompletableFuture
+						.supplyAsync(() -> queryLabels(batch, batch.size()), SourceQueryExecutor.getInstance().getLabelExecutor())
+						.thenAccept(this::mergeLabels)
+						.whenComplete((v, e) -> slots.release()));
+			}
+		}
+		
+		private boolean hasLabel(Resource r) {
+			synchronized (model) {
+				return model.contains(r, RDFS.label);
+			}
+		}
+		
+		// ------- Merge labels of one package into the result (packages finish concurrently)
+		private void mergeLabels(Model labels) {
+			Iterator<Triple> it = labels.getGraph().find(Node.ANY, Node.ANY, Node.ANY);
+			while (it.hasNext()) {
+				merge(it.next());
+			}
+		}
+		
+		// ------- Label of a URI of a failed description (not referenced by another one) is dropped
+		private void merge(Triple label) {
+			synchronized (model) {
+				Description d = seen.get(label.getSubject().getURI());
+				if(d != null){
+					d.add(label);
+				}
+			}
 		}
-		System.out.println("Queried labels from "+ source +", model size: " + model.size() + "; count: " + subjects.size());
-//		System.out.println(model);
-//		results = QueryExecutionFactory.create("PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-//				+ " SELECT DISTINCT ?l WHERE { ?s rdfs:label ?l }", model).execSelect();
-//		while(results.hasNext()) {
-//			QuerySolution sol = results.next();
-//			System.out.println(sol.get("l").toString());
-//		}
 	}
 }
@@ -0,0 +1,136 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformCopyBase;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+
+/**
+ * Query shape parsed once and cached by its text. Parameters are given as empty VALUES blocks in the template
+ * (e.g. "VALUES ?e { }") and filled with nodes on execution -> no string concatenation and re-parsing per request,
+ * URIs and literals of the parameters are never part of the query text (no quoting issues).
+ */
+public class QueryTemplate {
+	private static ConcurrentHashMap<String, QueryTemplate> templates = new ConcurrentHashMap<String, QueryTemplate>();
+
+	private Query query;
+
+	private QueryTemplate(String queryString) {
+		this.query = QueryFactory.create(queryString);
+	}
+
+	/*
+	 * Template of the query string, parsed on first use
+	 */
+	public static QueryTemplate of(String queryString) {
+		return templates.computeIfAbsent(queryString, QueryTemplate::new);
+	}
+
+	/*
+	 * Copy of the template with the VALUES blocks filled (blocks without parameter stay empty)
+	 */
+	public Query bind(Parameters params) {
+		//VALUES blocks are members of a group -> replaced within a copy of the group (template stays untouched)
+		Query q = QueryTransformOps.transform(query, new ElementTransformCopyBase() {
+			@Override
+			public Element transform(ElementGroup group, List<Element> members) {
+				ElementGroup result = new ElementGroup();
+				for (Element el : members) {
+					result.addElement(el instanceof ElementData ? params.fill((ElementData) el) : el);
+				}
+				return result;
+			}
+		});
+		if(query.isDescribeType()){
+			//not part of the shallow copy
+			for (Var v : query.getProjectVars()) {
+				q.addDescribeNode(v);
+			}
+		}
+		return q;
+	}
+
+	public static List<Node> uris(Collection<String> uris) {
+		List<Node> nodes = new ArrayList<Node>();
+		for (String uri : uris) {
+			nodes.add(NodeFactory.createURI(uri));
+		}
+		return nodes;
+	}
+
+
+	//######################### Parameters ##########################################
+
+	public static class Parameters {
+		private HashMap<List<Var>, List<Binding>> rows = new HashMap<List<Var>, List<Binding>>();
+
+		/*
+		 * VALUES ?var { nodes }
+		 */
+		public Parameters values(String var, Collection<Node> nodes) {
+			List<Binding> list = rows(Arrays.asList(Var.alloc(var)));
+			for (Node n : nodes) {
+				list.add(BindingFactory.binding(Var.alloc(var), n));
+			}
+			return this;
+		}
+
+		public Parameters value(String var, Node node) {
+			return values(var, Arrays.asList(node));
+		}
+
+		/*
+		 * One row of VALUES (?var1 ?var2 ...) { (node1 node2 ...) }
+		 */
+		public Parameters row(String[] vars, Node... nodes) {
+			List<Var> vs = new ArrayList<Var>();
+			BindingMap b = BindingFactory.create();
+			for (int i = 0; i < vars.length; i++) {
+				vs.add(Var.alloc(vars[i]));
+				b.add(Var.alloc(vars[i]), nodes[i]);
+			}
+			rows(vs).add(b);
+			return this;
+		}
+
+		private ElementData fill(ElementData data) {
+			List<Binding> list = rows.get(data.getVars());
+			if(list == null){
+				return data;
+			}
+			ElementData result = new ElementData();
+			for (Var v : data.getVars()) {
+				result.add(v);
+			}
+			for (Binding b : list) {
+				result.add(b);
+			}
+			return result;
+		}
+
+		private List<Binding> rows(List<Var> vars) {
+			List<Binding> list = rows.get(vars);
+			if(list == null){
+				list = new ArrayList<Binding>();
+				rows.put(vars, list);
+			}
+			return list;
+		}
+	}
+}
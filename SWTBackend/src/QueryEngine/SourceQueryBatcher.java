@@ -0,0 +1,189 @@
+package QueryEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import NEREngine.NamedEntity;
+import NEREngine.NamedEntity.EntityType;
+
+/**
+ * Collects the entities to query per source and entity type over all concurrent requests for a short window
+ * and sends them as batches to the source (instead of one query per request with all of its entities).
+ * The batch size of each source adapts to the observed runtime and failures: additive increase while the queries
+ * stay below the target latency, halved after failures or slow queries. A batch of several entities failed at the endpoint
+ * is split in halves and retried (oversized queries are aborted by the endpoint). Timeouts and cancellations of the client
+ * are no endpoint failures: just their runtime counts.
+ */
+public class SourceQueryBatcher {
+	private Consumer<BackgroundSourceQueryHandler> merge;
+	private ConcurrentHashMap<String, Queue> queues;
+	private HashMap<QuerySource.Source, BatchSize> sizes;
+	private ScheduledExecutorService timer;
+	private long window;
+
+	/*
+	 * merge: called with the finished query of a batch, before the entities of the batch are completed
+	 */
+	public SourceQueryBatcher(Consumer<BackgroundSourceQueryHandler> merge) {
+		this.merge = merge;
+		this.queues = new ConcurrentHashMap<String, Queue>();
+		this.sizes = new HashMap<QuerySource.Source, BatchSize>();
+		for (QuerySource.Source s : QuerySource.Source.values()) {
+			sizes.put(s, new BatchSize(s));
+		}
+		this.timer = Executors.newSingleThreadScheduledExecutor(new SourceQueryExecutor.DaemonThreadFactory("SourceQueryBatch"));
+		this.window = EngineConfig.getBatchWindow();
+	}
+
+	/*
+	 * Query the entity with the next batch of its source and type -> future completes after the result is merged (or the query failed)
+	 */
+	public CompletableFuture<Void> submit(QuerySource.Source s, EntityType et, NamedEntity e) {
+		Request r = new Request(e);
+		Queue q = queues.computeIfAbsent(s + "_" + et, k -> new Queue(s, et));
+		boolean full;
+		synchronized (q) {
+			q.waiting.add(r);
+			full = window <= 0 || q.waiting.size() >= sizes.get(s).get();
+			if(!full && q.flush == null){
+				q.flush = timer.schedule(() -> flush(q), window, TimeUnit.MILLISECONDS);
+			}
+		}
+		if(full){
+			flush(q);
+		}
+		return r.done;
+	}
+
+	// ------- Send all waiting entities of the queue in batches of the current size
+	private void flush(Queue q) {
+		List<Request> list;
+		synchronized (q) {
+			if(q.flush != null){
+				q.flush.cancel(false);
+				q.flush = null;
+			}
+			list = q.waiting;
+			q.waiting = new ArrayList<Request>();
+		}
+		int size = sizes.get(q.source).get();
+		for (int from = 0; from < list.size(); from += size) {
+			execute(q.source, q.type, new ArrayList<Request>(list.subList(from, Math.min(from + size, list.size()))));
+		}
+	}
+
+	private void execute(QuerySource.Source s, EntityType et, List<Request> batch) {
+		List<NamedEntity> entities = new ArrayList<NamedEntity>();
+		for (Request r : batch) {
+			entities.add(r.entity);
+		}
+		BackgroundSourceQueryHandler handler = new BackgroundSourceQueryHandler(s, et, entities);
+		SourceQueryExecutor.getInstance().submit(handler).whenComplete((h, e) -> {
+			boolean interrupted = e != null && isInterruption(e);
+			boolean failed = !interrupted && (e != null || handler.isFailed());
+			sizes.get(s).record(batch.size(), failed, interrupted, handler.getRuntime());
+			if(failed && batch.size() > 1){
+				//retry in halves, result of the failed batch is incomplete -> dropped
+				System.out.println("Query of " + handler + " failed -> retry in 2 batches");
+				int half = batch.size() / 2;
+				execute(s, et, new ArrayList<Request>(batch.subList(0, half)));
+				execute(s, et, new ArrayList<Request>(batch.subList(half, batch.size())));
+				return;
+			}
+			try {
+				if(e != null){
+					System.out.println("Query of " + handler + " failed: " + e.getMessage());
+				}else{
+					merge.accept(handler);
+				}
+			} catch (RuntimeException ex) {
+				System.out.println("Merge of " + handler + " failed: " + ex.getMessage());
+			} finally {
+				for (Request r : batch) {
+					r.done.complete(null);
+				}
+			}
+		});
+	}
+
+
+	// ------- Client side timeout or cancellation (no failure of the endpoint)
+	private static boolean isInterruption(Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		return cause instanceof TimeoutException || cause instanceof CancellationException;
+	}
+
+
+	//######################### Queue, Request and batch size ##########################################
+
+	private static class Queue {
+		private QuerySource.Source source;
+		private EntityType type;
+		private List<Request> waiting = new ArrayList<Request>();
+		private ScheduledFuture<?> flush;
+
+		Queue(QuerySource.Source source, EntityType type) {
+			this.source = source;
+			this.type = type;
+		}
+	}
+
+	private static class Request {
+		private NamedEntity entity;
+		private CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+		Request(NamedEntity entity) {
+			this.entity = entity;
+		}
+	}
+
+	private static class BatchSize {
+		private static final double MAX_FAILURE_RATE = 0.1;
+
+		private QuerySource.Source source;
+		private int size;
+		private int max;
+		private long target;
+		//exponentially weighted failure rate of the last queries
+		private double failureRate;
+
+		BatchSize(QuerySource.Source source) {
+			this.source = source;
+			this.max = Math.max(1, EngineConfig.getBatchMaxSize(source));
+			this.size = Math.max(1, Math.min(max, EngineConfig.getBatchSize(source)));
+			this.target = EngineConfig.getBatchTargetLatency(source);
+		}
+
+		synchronized int get() {
+			return size;
+		}
+
+		/*
+		 * interrupted: timeout or cancellation of the client -> no failure of the endpoint, but no proof that the size is fine either
+		 */
+		synchronized void record(int batch, boolean failed, boolean interrupted, long runtime) {
+			failureRate = 0.8 * failureRate + (failed ? 0.2 : 0);
+			int old = size;
+			if(failed || (target > 0 && runtime > target)){
+				size = Math.max(1, Math.min(size, batch) / 2);
+			}else if(!interrupted && batch >= size && failureRate < MAX_FAILURE_RATE){
+				//only full batches show that the size is fine
+				size = Math.min(max, size + 1);
+			}
+			if(size != old){
+				System.out.println("Batch size of " + source + ": " + old + " -> " + size + " (runtime: " + runtime + "ms, failure rate: " + String.format("%.2f", failureRate) + ")");
+			}
+		}
+	}
+}
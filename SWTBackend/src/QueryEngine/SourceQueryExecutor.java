@@ -0,0 +1,173 @@
+package QueryEngine;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executor for all source queries: a bounded thread pool instead of new threads per request
+ * or (mode "virtual" on JDK 21+) a virtual thread per task, so that the remote waits of many requests overlap.
+ * Each source has its own limit of concurrently running queries (further tasks wait in a queue
+ * without blocking a pool thread) and every call is cancelled after a timeout.
+ */
+public class SourceQueryExecutor {
+	private static SourceQueryExecutor instance;
+
+	private ExecutorService executor;
+	private ExecutorService labelExecutor;
+	private ScheduledExecutorService timer;
+	private HashMap<QuerySource.Source, SourceLimiter> limiters;
+	private long timeout;
+	private boolean virtual;
+
+	private SourceQueryExecutor() {
+		if(EngineConfig.getExecutorMode() == EngineConfig.ExecutorMode.VIRTUAL){
+			executor = createVirtualThreadExecutor();
+			virtual = executor != null;
+		}
+		if(executor == null){
+			int threads = EngineConfig.getExecutorThreads();
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("SourceQuery"));
+		}
+		//label queries are started from within source queries -> own pool, otherwise the pool could block itself
+		labelExecutor = virtual ? executor : Executors.newFixedThreadPool(EngineConfig.getLabelThreads(), new DaemonThreadFactory("LabelQuery"));
+		System.out.println("Source queries executed " + (virtual ? "on virtual threads" : "on pool of " + EngineConfig.getExecutorThreads() + " threads"));
+		timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("SourceQueryTimeout"));
+		limiters = new HashMap<QuerySource.Source, SourceLimiter>();
+		for (QuerySource.Source s : QuerySource.Source.values()) {
+			limiters.put(s, new SourceLimiter(EngineConfig.getSourceMaxConcurrent(s)));
+		}
+		timeout = EngineConfig.getSourceTimeout();
+	}
+
+	public static synchronized SourceQueryExecutor getInstance() {
+		if(instance == null){
+			instance = new SourceQueryExecutor();
+		}
+		return instance;
+	}
+
+	/*
+	 * Virtual threads only exist from JDK 21 on -> lookup via reflection, null if not available
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			System.out.println("Virtual threads not supported by this JVM (" + System.getProperty("java.version") + ") -> fallback to thread pool");
+			return null;
+		}
+	}
+
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/*
+	 * Executor for the label packages queried within a source query
+	 */
+	public ExecutorService getLabelExecutor() {
+		return labelExecutor;
+	}
+
+	/*
+	 * Schedule the query of a handler -> future completes with the handler after its query finished.
+	 * Cancelling the future (or the timeout) aborts the running query. The timeout starts with the query,
+	 * the time waiting for the limit of the source does not count.
+	 */
+	public CompletableFuture<BackgroundSourceQueryHandler> submit(BackgroundSourceQueryHandler handler) {
+		CompletableFuture<BackgroundSourceQueryHandler> future = new CompletableFuture<BackgroundSourceQueryHandler>();
+
+		limiters.get(handler.getSource()).submit(() -> {
+			if(future.isDone()){
+				//cancelled or timed out while waiting
+				return;
+			}
+			if(timeout > 0){
+				ScheduledFuture<?> t = timer.schedule(() -> {
+					future.completeExceptionally(new TimeoutException("Query of " + handler + " exceeded " + timeout + "ms"));
+				}, timeout, TimeUnit.MILLISECONDS);
+				future.whenComplete((h, e) -> t.cancel(false));
+			}
+			try {
+				handler.run();
+				future.complete(handler);
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+
+		future.whenComplete((h, e) -> {
+			if(e != null){
+				handler.cancel();
+			}
+		});
+		return future;
+	}
+
+
+	//######################### Per source limit ##########################################
+
+	private class SourceLimiter {
+		private Semaphore permits;
+		private ConcurrentLinkedQueue<Runnable> waiting;
+
+		SourceLimiter(int maxConcurrent) {
+			permits = new Semaphore(Math.max(1, maxConcurrent));
+			waiting = new ConcurrentLinkedQueue<Runnable>();
+		}
+
+		void submit(Runnable task) {
+			waiting.add(task);
+			dispatch();
+		}
+
+		private void dispatch() {
+			while(!waiting.isEmpty() && permits.tryAcquire()){
+				Runnable task = waiting.poll();
+				if(task == null){
+					permits.release();
+					return;
+				}
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						permits.release();
+						dispatch();
+					}
+				});
+			}
+		}
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory {
+		private String name;
+		private AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
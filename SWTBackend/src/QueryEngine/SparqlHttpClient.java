@@ -0,0 +1,100 @@
+package QueryEngine;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.riot.web.HttpOp;
+import org.apache.jena.sparql.engine.http.QueryEngineHTTP;
+
+/**
+ * Shared HTTP client of all remote SPARQL queries, installed as default client of Jena
+ * (otherwise every QueryExecutionFactory.sparqlService call opens a new client and connection).
+ * Pooled keep-alive connections with a limit per endpoint, gzip/deflate compressed responses,
+ * connect/read timeouts and optionally an in-memory HTTP response cache.
+ * Remote executions have to be created with sparqlService (Jena wraps the client per query for compression otherwise,
+ * which requires the plain client and bypasses the cache).
+ */
+public class SparqlHttpClient {
+	private static HttpClient client;
+
+	/*
+	 * Remote execution of the query on the endpoint with the shared client
+	 */
+	public static QueryExecution sparqlService(String endpoint, Query q) {
+		install();
+		QueryExecution qe = QueryExecutionFactory.sparqlService(endpoint, q);
+		if(qe instanceof QueryEngineHTTP){
+			//compression is handled by the shared client
+			((QueryEngineHTTP) qe).setAllowGZip(false);
+			((QueryEngineHTTP) qe).setAllowDeflate(false);
+		}
+		return qe;
+	}
+
+	/*
+	 * Create and install the client on first use
+	 */
+	public static synchronized HttpClient install() {
+		if(client != null){
+			return client;
+		}
+		PoolingClientConnectionManager pool = new PoolingClientConnectionManager();
+		pool.setMaxTotal(Math.max(1, EngineConfig.getHttpMaxConnections()));
+		//limit of the source endpoints per route, all other hosts keep the conservative default
+		pool.setDefaultMaxPerRoute(Math.max(1, EngineConfig.getHttpMaxConnectionsPerRoute()));
+		for (QuerySource.Source s : QuerySource.Source.values()) {
+			pool.setMaxPerRoute(route(QuerySource.getEndpoint(s)), Math.max(1, EngineConfig.getHttpMaxConnections(s)));
+		}
+
+		DefaultHttpClient base = new DefaultHttpClient(pool);
+		HttpParams params = base.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, Math.max(0, EngineConfig.getHttpConnectTimeout()));
+		HttpConnectionParams.setSoTimeout(params, Math.max(0, EngineConfig.getHttpReadTimeout()));
+		//keep alive as stated by the endpoint, otherwise max. idle time of the configuration
+		long keepAlive = EngineConfig.getHttpKeepAlive();
+		DefaultConnectionKeepAliveStrategy stated = new DefaultConnectionKeepAliveStrategy();
+		base.setKeepAliveStrategy((response, context) -> {
+			long duration = stated.getKeepAliveDuration(response, context);
+			return duration > 0 ? duration : keepAlive;
+		});
+		//Accept-Encoding: gzip, deflate -> responses are decompressed transparently
+		base.addRequestInterceptor(new RequestAcceptEncoding());
+		base.addResponseInterceptor(new ResponseContentEncoding());
+
+		HttpClient c = base;
+		if(EngineConfig.isHttpCacheEnabled()){
+			CacheConfig config = new CacheConfig();
+			config.setMaxCacheEntries(EngineConfig.getHttpCacheEntries());
+			config.setMaxObjectSize(EngineConfig.getHttpCacheMaxObjectSize());
+			c = new CachingHttpClient(c, config);
+		}
+
+		HttpOp.setDefaultHttpClient(c);
+		client = c;
+		System.out.println("HTTP client: max. " + pool.getMaxTotal() + " connections, keep alive " + TimeUnit.MILLISECONDS.toSeconds(keepAlive)
+				+ "s, cache " + (EngineConfig.isHttpCacheEnabled() ? "enabled" : "disabled"));
+		return client;
+	}
+
+	// ------- Route as determined by the client for requests to the endpoint (port as in the URI, -1 if not stated)
+	private static HttpRoute route(String endpoint) {
+		URI uri = URI.create(endpoint);
+		boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		return new HttpRoute(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()), null, secure);
+	}
+}
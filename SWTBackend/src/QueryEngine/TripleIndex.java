@@ -0,0 +1,393 @@
+package QueryEngine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+
+/**
+ * Dictionary encoded copy of the cached triples for the traversals on the hot path (disambiguation, context triples).
+ * URIs and literals are mapped to int ids, the triples are kept in primitive arrays (subject, predicate, object)
+ * with one linked list of out edges (SPO) and one of in edges (OPS) per node -> a hop is an array access
+ * without bindings, node objects or string comparisons.
+ * Dictionary and triple lookup are open addressing tables of ints (no boxed keys or map entries).
+ * Each triple counts the graphs containing it: added with every graph, removed once the last graph is evicted
+ * -> maintained per graph, never rebuilt. Slots and ids of removed triples and nodes are reused.
+ * Readers have to hold the read lock (beginRead/endRead) while traversing.
+ */
+public class TripleIndex {
+	public static final int NONE = -1;
+
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	//dictionary: id -> node, hash table of ids (id + 1, 0: empty), number of triples using the node
+	private Node[] nodes;
+	private int[] nodeTable;
+	private int[] nodeRefs;
+	private int nodeCount;
+	private int nodeEnd;
+	private int[] freeNodes;
+	private int freeNodeCount;
+
+	//triples: id of the triple = index in the arrays, hash table of triple ids (id + 1, 0: empty)
+	private int[] subjects;
+	private int[] predicates;
+	private int[] objects;
+	private int[] refs;
+	private int[] nextOut;
+	private int[] prevOut;
+	private int[] nextIn;
+	private int[] prevIn;
+	private int[] tripleTable;
+	private int size;
+	private int end;
+	private int[] freeTriples;
+	private int freeTripleCount;
+
+	//first out/in edge per node
+	private int[] firstOut;
+	private int[] firstIn;
+
+	public TripleIndex() {
+		nodes = new Node[1024];
+		nodeTable = new int[2048];
+		nodeRefs = new int[1024];
+		freeNodes = new int[16];
+		firstOut = filled(1024);
+		firstIn = filled(1024);
+
+		subjects = new int[1024];
+		predicates = new int[1024];
+		objects = new int[1024];
+		refs = new int[1024];
+		nextOut = new int[1024];
+		prevOut = new int[1024];
+		nextIn = new int[1024];
+		prevIn = new int[1024];
+		tripleTable = new int[2048];
+		freeTriples = new int[16];
+	}
+
+	public void beginRead() {
+		lock.readLock().lock();
+	}
+
+	public void endRead() {
+		lock.readLock().unlock();
+	}
+
+	/*
+	 * Triples of a graph added to the cache (a triple of several graphs is counted per graph)
+	 */
+	public void add(Iterator<Triple> triples) {
+		lock.writeLock().lock();
+		try {
+			while (triples.hasNext()) {
+				Triple t = triples.next();
+				int s = encode(t.getSubject());
+				int p = encode(t.getPredicate());
+				int o = encode(t.getObject());
+				int id = find(s, p, o);
+				if(id != NONE){
+					refs[id]++;
+					//ids of the nodes were referenced by encode
+					release(s);
+					release(p);
+					release(o);
+				}else{
+					insert(s, p, o);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Triples of a graph evicted from the cache -> removed if not part of another graph
+	 */
+	public void remove(Iterator<Triple> triples) {
+		lock.writeLock().lock();
+		try {
+			while (triples.hasNext()) {
+				Triple t = triples.next();
+				int s = id(t.getSubject());
+				int p = id(t.getPredicate());
+				int o = id(t.getObject());
+				int triple = s == NONE || p == NONE || o == NONE ? NONE : find(s, p, o);
+				if(triple != NONE && --refs[triple] == 0){
+					delete(triple);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// ------- Dictionary
+	public int id(Node n) {
+		int mask = nodeTable.length - 1;
+		for (int i = mix(n.hashCode()) & mask; nodeTable[i] != 0; i = (i + 1) & mask) {
+			if(nodes[nodeTable[i] - 1].equals(n)){
+				return nodeTable[i] - 1;
+			}
+		}
+		return NONE;
+	}
+
+	public Node node(int id) {
+		return nodes[id];
+	}
+
+	// ------- Edges: for (int t = firstOut(s); t != NONE; t = nextOut(t))
+	public int firstOut(int node) {
+		return node == NONE || node >= nodeEnd ? NONE : firstOut[node];
+	}
+
+	public int nextOut(int triple) {
+		return nextOut[triple];
+	}
+
+	public int firstIn(int node) {
+		return node == NONE || node >= nodeEnd ? NONE : firstIn[node];
+	}
+
+	public int nextIn(int triple) {
+		return nextIn[triple];
+	}
+
+	public int subject(int triple) {
+		return subjects[triple];
+	}
+
+	public int predicate(int triple) {
+		return predicates[triple];
+	}
+
+	public int object(int triple) {
+		return objects[triple];
+	}
+
+	public boolean contains(int s, int p, int o) {
+		return s != NONE && p != NONE && o != NONE && find(s, p, o) != NONE;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int nodes() {
+		return nodeCount;
+	}
+
+
+	//######################### Triples ##########################################
+
+	private int find(int s, int p, int o) {
+		int mask = tripleTable.length - 1;
+		for (int i = hash(s, p, o) & mask; tripleTable[i] != 0; i = (i + 1) & mask) {
+			int t = tripleTable[i] - 1;
+			if(subjects[t] == s && predicates[t] == p && objects[t] == o){
+				return t;
+			}
+		}
+		return NONE;
+	}
+
+	private void insert(int s, int p, int o) {
+		int t;
+		if(freeTripleCount > 0){
+			t = freeTriples[--freeTripleCount];
+		}else{
+			if(end == subjects.length){
+				int capacity = end * 2;
+				subjects = Arrays.copyOf(subjects, capacity);
+				predicates = Arrays.copyOf(predicates, capacity);
+				objects = Arrays.copyOf(objects, capacity);
+				refs = Arrays.copyOf(refs, capacity);
+				nextOut = Arrays.copyOf(nextOut, capacity);
+				prevOut = Arrays.copyOf(prevOut, capacity);
+				nextIn = Arrays.copyOf(nextIn, capacity);
+				prevIn = Arrays.copyOf(prevIn, capacity);
+			}
+			t = end++;
+		}
+		subjects[t] = s;
+		predicates[t] = p;
+		objects[t] = o;
+		refs[t] = 1;
+		//prepend to the edge lists of subject and object
+		prevOut[t] = NONE;
+		nextOut[t] = firstOut[s];
+		if(firstOut[s] != NONE){
+			prevOut[firstOut[s]] = t;
+		}
+		firstOut[s] = t;
+		prevIn[t] = NONE;
+		nextIn[t] = firstIn[o];
+		if(firstIn[o] != NONE){
+			prevIn[firstIn[o]] = t;
+		}
+		firstIn[o] = t;
+		size++;
+
+		if(size * 2 > tripleTable.length){
+			rehashTriples(tripleTable.length * 2);
+		}else{
+			put(tripleTable, hash(s, p, o), t);
+		}
+	}
+
+	private void delete(int t) {
+		int s = subjects[t];
+		int o = objects[t];
+		//unlink from the edge lists
+		if(prevOut[t] != NONE){
+			nextOut[prevOut[t]] = nextOut[t];
+		}else{
+			firstOut[s] = nextOut[t];
+		}
+		if(nextOut[t] != NONE){
+			prevOut[nextOut[t]] = prevOut[t];
+		}
+		if(prevIn[t] != NONE){
+			nextIn[prevIn[t]] = nextIn[t];
+		}else{
+			firstIn[o] = nextIn[t];
+		}
+		if(nextIn[t] != NONE){
+			prevIn[nextIn[t]] = prevIn[t];
+		}
+		removeFromTable(tripleTable, hash(s, predicates[t], o), t, true);
+		size--;
+		if(freeTripleCount == freeTriples.length){
+			freeTriples = Arrays.copyOf(freeTriples, freeTripleCount * 2);
+		}
+		freeTriples[freeTripleCount++] = t;
+
+		release(s);
+		release(predicates[t]);
+		release(o);
+	}
+
+	private void rehashTriples(int capacity) {
+		tripleTable = new int[capacity];
+		for (int t = 0; t < end; t++) {
+			if(refs[t] > 0){
+				put(tripleTable, hash(subjects[t], predicates[t], objects[t]), t);
+			}
+		}
+	}
+
+
+	//######################### Nodes ##########################################
+
+	// ------- Id of the node, one more triple references it
+	private int encode(Node n) {
+		int id = id(n);
+		if(id == NONE){
+			if(freeNodeCount > 0){
+				id = freeNodes[--freeNodeCount];
+			}else{
+				if(nodeEnd == nodes.length){
+					int capacity = nodeEnd * 2;
+					nodes = Arrays.copyOf(nodes, capacity);
+					nodeRefs = Arrays.copyOf(nodeRefs, capacity);
+					firstOut = grow(firstOut, capacity);
+					firstIn = grow(firstIn, capacity);
+				}
+				id = nodeEnd++;
+			}
+			nodes[id] = n;
+			nodeRefs[id] = 0;
+			firstOut[id] = NONE;
+			firstIn[id] = NONE;
+			nodeCount++;
+			if(nodeCount * 2 > nodeTable.length){
+				rehashNodes(nodeTable.length * 2);
+			}else{
+				put(nodeTable, mix(n.hashCode()), id);
+			}
+		}
+		nodeRefs[id]++;
+		return id;
+	}
+
+	// ------- One triple less references the node -> removed from the dictionary if unused
+	private void release(int id) {
+		if(--nodeRefs[id] > 0){
+			return;
+		}
+		removeFromTable(nodeTable, mix(nodes[id].hashCode()), id, false);
+		nodes[id] = null;
+		nodeCount--;
+		if(freeNodeCount == freeNodes.length){
+			freeNodes = Arrays.copyOf(freeNodes, freeNodeCount * 2);
+		}
+		freeNodes[freeNodeCount++] = id;
+	}
+
+	private void rehashNodes(int capacity) {
+		nodeTable = new int[capacity];
+		for (int id = 0; id < nodeEnd; id++) {
+			if(nodes[id] != null){
+				put(nodeTable, mix(nodes[id].hashCode()), id);
+			}
+		}
+	}
+
+
+	//######################### Open addressing (linear probing) ##########################################
+
+	private static void put(int[] table, int hash, int id) {
+		int mask = table.length - 1;
+		int i = hash & mask;
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = id + 1;
+	}
+
+	// ------- Remove the id and shift the following entries of the probe sequence back (no tombstones)
+	private void removeFromTable(int[] table, int hash, int id, boolean triples) {
+		int mask = table.length - 1;
+		int i = hash & mask;
+		while (table[i] != id + 1) {
+			i = (i + 1) & mask;
+		}
+		int gap = i;
+		for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			int e = table[j] - 1;
+			int home = (triples ? hash(subjects[e], predicates[e], objects[e]) : mix(nodes[e].hashCode())) & mask;
+			//entry may move into the gap if its home is not between the gap and its position
+			if(((j - home) & mask) >= ((j - gap) & mask)){
+				table[gap] = table[j];
+				gap = j;
+			}
+		}
+		table[gap] = 0;
+	}
+
+	private static int hash(int s, int p, int o) {
+		return mix((s * 31 + p) * 31 + o);
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int[] filled(int capacity) {
+		int[] a = new int[capacity];
+		Arrays.fill(a, NONE);
+		return a;
+	}
+
+	private static int[] grow(int[] a, int capacity) {
+		int[] result = Arrays.copyOf(a, capacity);
+		Arrays.fill(result, a.length, capacity, NONE);
+		return result;
+	}
+}